@@ -0,0 +1,140 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the server modes (pool, nio, virtual) from the client side. It
+ * first opens a number of idle connections, the way a dashboard holding
+ * status connections would, then measures how many /status requests per
+ * second a set of client threads gets through, with latency percentiles.
+ *
+ * Start the server in the mode under test, then run for instance
+ *
+ * <pre>
+ * ant bench -Dbench.class=com.kitware.nbia.ConnectionModeBenchmark \
+ *   -Dbench.args="localhost 8080 10000 50 10"
+ * </pre>
+ */
+public class ConnectionModeBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 5) {
+      System.err.println("Usage: ConnectionModeBenchmark host port "
+          + "idleConnections clientThreads seconds");
+      System.exit(2);
+    }
+    final String host = args[0];
+    final int port = Integer.parseInt(args[1]);
+    int idle = Integer.parseInt(args[2]);
+    int threads = Integer.parseInt(args[3]);
+    final long seconds = Long.parseLong(args[4]);
+
+    List<Socket> held = new ArrayList<Socket>();
+    for (int i = 0; i < idle; i++) {
+      try {
+        held.add(new Socket(host, port));
+      } catch (Exception e) {
+        System.err.println("Could only open " + i + " idle connections: " + e);
+        break;
+      }
+    }
+    System.out.println("Holding " + held.size() + " idle connections");
+
+    final long deadline = System.currentTimeMillis() + seconds * 1000;
+    final long[][] latencies = new long[threads][];
+    final int[] failures = new int[threads];
+    Thread[] clients = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      clients[t] = new Thread(new Runnable() {
+        public void run() {
+          long[] lat = new long[1 << 16];
+          int n = 0;
+          byte[] request = ("GET /status/bench-" + id + " HTTP/1.0\r\n\r\n")
+              .getBytes();
+          byte[] buf = new byte[4096];
+          while (System.currentTimeMillis() < deadline) {
+            long start = System.nanoTime();
+            try {
+              Socket s = new Socket();
+              s.connect(new InetSocketAddress(host, port));
+              OutputStream out = s.getOutputStream();
+              out.write(request);
+              out.flush();
+              InputStream in = s.getInputStream();
+              while (in.read(buf) >= 0) {
+                // drain until the server closes
+              }
+              s.close();
+            } catch (Exception e) {
+              failures[id]++;
+              continue;
+            }
+            if (n == lat.length) {
+              lat = Arrays.copyOf(lat, n * 2);
+            }
+            lat[n++] = System.nanoTime() - start;
+          }
+          latencies[id] = Arrays.copyOf(lat, n);
+        }
+      });
+      clients[t].start();
+    }
+    for (Thread c : clients) {
+      c.join();
+    }
+    for (Socket s : held) {
+      s.close();
+    }
+
+    int total = 0;
+    int failed = 0;
+    for (int t = 0; t < threads; t++) {
+      total += latencies[t].length;
+      failed += failures[t];
+    }
+    long[] all = new long[total];
+    int k = 0;
+    for (long[] lat : latencies) {
+      System.arraycopy(lat, 0, all, k, lat.length);
+      k += lat.length;
+    }
+    Arrays.sort(all);
+    System.out.println("requests\t" + total);
+    System.out.println("failures\t" + failed);
+    System.out.println("requests/s\t" + total / seconds);
+    System.out.println("p50 ms\t" + percentile(all, 0.50));
+    System.out.println("p99 ms\t" + percentile(all, 0.99));
+    System.out.println("max ms\t" + percentile(all, 1.0));
+  }
+
+  private static String percentile(long[] sorted, double p) {
+    if (sorted.length == 0) {
+      return "-";
+    }
+    int i = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+    return String.format("%.3f", sorted[Math.max(0, i)] / 1e6);
+  }
+
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import gov.nih.nci.cagrid.cqlquery.CQLQuery;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.axis.AxisFault;
+
+/**
+ * A stand-in for an NBIA instance, so that the adapter can be load tested
+ * without calling NCI. It lives with the benchmarks, so it never ships in the
+ * jar, and is selected by starting the server with bench.build on the
+ * classpath and
+ *
+ * <pre>
+ * -Dnbia.gridServiceFactory=com.kitware.nbia.FakeGridService$Factory
+ * </pre>
+ *
+ * It reads its parameters from the query of the gridServiceUrl, e.g.
+ *
+ * <pre>
+ * fake:?latency=50&amp;jitter=20&amp;faults=0.05&amp;bandwidth=5000000
+ * </pre>
+ *
+ * with these, all optional:
+ *
+ * <ul>
+ * <li>latency, jitter - milliseconds each call takes, plus or minus up to
+ * jitter (50, 20)</li>
+ * <li>faults - the probability that a call fails with a RemoteException (0)
+ * </li>
+ * <li>drops - the probability that a transfer is cut halfway with a
+ * SocketException (0)</li>
+ * <li>bandwidth - bytes per second of each transfer, 0 for no limit (0)</li>
+ * <li>slices, sliceBytes - the shape of the series zips (32, 524288)</li>
+ * <li>results - the number of series every query matches (20)</li>
+ * </ul>
+ *
+ * A series uid under "0." always fails with a fault naming it. Every series is the same
+ * synthetic zip, built once per URL: slices with a small header and noisy
+ * pixel data, so that it deflates about as well as a real scan.
+ */
+class FakeGridService implements GridService {
+
+  private static final ConcurrentMap<String, FakeGridService> services =
+    new ConcurrentHashMap<String, FakeGridService>();
+
+  private static final Random random = new Random();
+
+  private long latency = 50;
+  private long jitter = 20;
+  private double faults;
+  private double drops;
+  private long bandwidth;
+  private int slices = 32;
+  private int sliceBytes = 512 * 1024;
+  private int results = 20;
+
+  private byte[] zip;
+
+  private FakeGridService(String url) {
+    int q = url.indexOf('?');
+    String query = q < 0 ? "" : url.substring(q + 1);
+    for (String pair : query.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq < 0) {
+        continue;
+      }
+      String name = pair.substring(0, eq);
+      String value = pair.substring(eq + 1);
+      if (name.equals("latency")) {
+        latency = Long.parseLong(value);
+      } else if (name.equals("jitter")) {
+        jitter = Long.parseLong(value);
+      } else if (name.equals("faults")) {
+        faults = Double.parseDouble(value);
+      } else if (name.equals("drops")) {
+        drops = Double.parseDouble(value);
+      } else if (name.equals("bandwidth")) {
+        bandwidth = Long.parseLong(value);
+      } else if (name.equals("slices")) {
+        slices = Integer.parseInt(value);
+      } else if (name.equals("sliceBytes")) {
+        sliceBytes = Integer.parseInt(value);
+      } else if (name.equals("results")) {
+        results = Integer.parseInt(value);
+      } else {
+        throw new IllegalArgumentException("Unknown parameter " + name
+            + " in " + url);
+      }
+    }
+  }
+
+  /**
+   * Makes the fake services, see NBIASimpleClient.FACTORY_PROPERTY
+   */
+  public static class Factory implements GridService.Factory {
+    public GridService forUrl(String url) {
+      return FakeGridService.forUrl(url);
+    }
+  }
+
+  /**
+   * @param url
+   *          - the gridServiceUrl, parameters in its query
+   * @return the fake service shared by every client of that URL
+   */
+  static FakeGridService forUrl(String url) {
+    FakeGridService service = services.get(url);
+    if (service == null) {
+      FakeGridService fresh = new FakeGridService(url);
+      service = services.putIfAbsent(url, fresh);
+      if (service == null) {
+        service = fresh;
+      }
+    }
+    return service;
+  }
+
+  public Transfer retrieve(String uuid) throws Exception {
+    call(false);
+    if (uuid.startsWith("0.")) {
+      throw new AxisFault("Server.userException", "No series with uid "
+          + uuid, null, null);
+    }
+    final boolean drop = random.nextDouble() < drops;
+    final byte[] data = zip();
+    return new Transfer() {
+      public InputStream open() {
+        return new Throttled(new ByteArrayInputStream(data), bandwidth,
+            drop ? data.length / 2 : -1);
+      }
+    };
+  }
+
+  public Iterator<String> query(CQLQuery query) throws Exception {
+    call(false);
+    List<String> uids = new ArrayList<String>();
+    for (int i = 0; i < results; i++) {
+      uids.add("1.3.6.1.4.1.9328.50.99." + i);
+    }
+    return uids.iterator();
+  }
+
+  /**
+   * Take the time of a call and fail it when asked to.
+   */
+  private void call(boolean fail) throws RemoteException,
+      InterruptedException {
+    long delay = latency;
+    if (jitter > 0) {
+      delay += (long) ((random.nextDouble() * 2 - 1) * jitter);
+    }
+    if (delay > 0) {
+      Thread.sleep(delay);
+    }
+    if (fail || random.nextDouble() < faults) {
+      throw new RemoteException("Injected fault");
+    }
+  }
+
+  private synchronized byte[] zip() throws IOException {
+    if (zip == null) {
+      Random pixels = new Random(slices);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ZipOutputStream out = new ZipOutputStream(bytes);
+      byte[] slice = new byte[sliceBytes];
+      for (int i = 0; i < slices; i++) {
+        out.putNextEntry(new ZipEntry(String.format("%06d.dcm", i)));
+        for (int p = 0; p < slice.length; p++) {
+          // Header and high bytes compress, low bytes are noise
+          slice[p] = p < 2048 || (p & 1) == 1 ? (byte) (p >> 12)
+              : (byte) pixels.nextInt(256);
+        }
+        out.write(slice);
+        out.closeEntry();
+      }
+      out.close();
+      zip = bytes.toByteArray();
+    }
+    return zip;
+  }
+
+  /**
+   * A transfer paced to a bandwidth, optionally cut short
+   */
+  private static class Throttled extends FilterInputStream {
+    private final long bandwidth;
+    private final long dropAt;
+    private final long start = System.nanoTime();
+    private long sent;
+
+    Throttled(InputStream in, long bandwidth, long dropAt) {
+      super(in);
+      this.bandwidth = bandwidth;
+      this.dropAt = dropAt;
+    }
+
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (dropAt >= 0 && sent >= dropAt) {
+        throw new SocketException("Injected connection reset");
+      }
+      if (bandwidth > 0) {
+        // About twenty reads a second
+        len = (int) Math.min(len, Math.max(1, bandwidth / 20));
+      }
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        sent += n;
+        pace();
+      }
+      return n;
+    }
+
+    private void pace() throws IOException {
+      if (bandwidth <= 0) {
+        return;
+      }
+      long due = start + sent * 1000L * 1000 * 1000 / bandwidth;
+      long wait = due - System.nanoTime();
+      if (wait > 0) {
+        try {
+          Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted");
+        }
+      }
+    }
+  }
+
+}
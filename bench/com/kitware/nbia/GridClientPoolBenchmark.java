@@ -0,0 +1,93 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import gov.nih.nci.cagrid.ncia.client.NCIACoreServiceClient;
+
+/**
+ * Measures the per-request cost of getting a service stub: building a new
+ * NCIACoreServiceClient, as every request used to, against borrowing one from
+ * the GridClientPool and giving it back. Only the stub is measured, no call is
+ * made to the grid, so it runs offline against the real client jars.
+ *
+ * <pre>
+ * ant bench -Dbench.class=com.kitware.nbia.GridClientPoolBenchmark \
+ *   -Dbench.args="http://imaging.nci.nih.gov/wsrf/services/cagrid/NCIACoreService 2000 4"
+ * </pre>
+ */
+public class GridClientPoolBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.err.println("Usage: GridClientPoolBenchmark gridServiceUrl "
+          + "iterations threads");
+      System.exit(2);
+    }
+    final String url = args[0];
+    final int iterations = Integer.parseInt(args[1]);
+    int threads = Integer.parseInt(args[2]);
+
+    // Warm up both paths so that class loading is not measured
+    run(url, iterations / 10 + 1, threads, false);
+    run(url, iterations / 10 + 1, threads, true);
+
+    double fresh = run(url, iterations, threads, false);
+    double pooled = run(url, iterations, threads, true);
+    GridClientPool pool = GridClientPool.forUrl(url);
+    System.out.println(String.format("new stub per request\t%.1f us", fresh));
+    System.out.println(String.format("pooled stub\t%.1f us", pooled));
+    System.out.println(String.format("saved per request\t%.1f us",
+        fresh - pooled));
+    System.out.println("stubs built by the pool\t" + pool.getCreated());
+  }
+
+  /**
+   * @return the mean time in microseconds one thread takes to get a stub
+   */
+  private static double run(final String url, final int iterations,
+      int threads, final boolean pooled) throws Exception {
+    final GridClientPool pool = GridClientPool.forUrl(url);
+    final Exception[] failure = new Exception[1];
+    Thread[] workers = new Thread[threads];
+    long start = System.nanoTime();
+    for (int t = 0; t < threads; t++) {
+      workers[t] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            for (int i = 0; i < iterations; i++) {
+              if (pooled) {
+                pool.release(pool.borrow(), true);
+              } else {
+                new NCIACoreServiceClient(url);
+              }
+            }
+          } catch (Exception e) {
+            failure[0] = e;
+          }
+        }
+      });
+      workers[t].start();
+    }
+    for (Thread w : workers) {
+      w.join();
+    }
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+    return (System.nanoTime() - start) / 1e3 / iterations;
+  }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Fires a mix of /fetch and /status requests at a running server and reports
+ * the throughput and latency percentiles of each. The series uuids are drawn
+ * from a fixed set, so that some fetches start transfers and others attach to
+ * one in flight or hit the cache, as with real users.
+ *
+ * Start the server against the fake grid service, e.g. with
+ *
+ * <pre>
+ * ant bench -Dbench.class=com.kitware.nbia.NBIAAdapterHTTPServer \
+ *   -Dnbia.gridServiceFactory='com.kitware.nbia.FakeGridService$Factory' \
+ *   -Dbench.args="-l fake.properties"
+ * </pre>
+ *
+ * and gridServiceUrl=fake:?latency=100&amp;bandwidth=2000000 in
+ * fake.properties, then run for instance
+ *
+ * <pre>
+ * ant bench -Dbench.class=com.kitware.nbia.LoadDriver \
+ *   -Dbench.args="http://localhost:8080 30 16 10 200"
+ * </pre>
+ *
+ * for 30 seconds of 16 clients, 10% fetches, over 200 series.
+ */
+public class LoadDriver {
+
+  private static final String[] OPS = { "fetch", "status" };
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 5) {
+      System.err.println("Usage: LoadDriver baseUrl seconds threads "
+          + "fetchPercent series");
+      System.exit(2);
+    }
+    final String base = args[0];
+    long seconds = Long.parseLong(args[1]);
+    int threads = Integer.parseInt(args[2]);
+    final int fetchPercent = Integer.parseInt(args[3]);
+    final int series = Integer.parseInt(args[4]);
+
+    final long deadline = System.currentTimeMillis() + seconds * 1000;
+    final Recorder[][] recorders = new Recorder[threads][OPS.length];
+    Thread[] clients = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final Recorder[] mine = recorders[t];
+      for (int op = 0; op < OPS.length; op++) {
+        mine[op] = new Recorder();
+      }
+      final Random random = new Random(t);
+      clients[t] = new Thread(new Runnable() {
+        public void run() {
+          byte[] buf = new byte[4096];
+          while (System.currentTimeMillis() < deadline) {
+            int op = random.nextInt(100) < fetchPercent ? 0 : 1;
+            String uuid = "1.3.6.1.4.1.9328.50.77." + random.nextInt(series);
+            long start = System.nanoTime();
+            int code;
+            try {
+              HttpURLConnection c = (HttpURLConnection) new URL(base + "/"
+                  + OPS[op] + "/" + uuid).openConnection();
+              code = c.getResponseCode();
+              InputStream in = code < 400 ? c.getInputStream() : c
+                  .getErrorStream();
+              if (in != null) {
+                while (in.read(buf) >= 0) {
+                  // Drain the body so the connection can be reused
+                }
+                in.close();
+              }
+            } catch (Exception e) {
+              code = -1;
+            }
+            mine[op].record(System.nanoTime() - start, code);
+          }
+        }
+      }, "client #" + t);
+    }
+    long started = System.nanoTime();
+    for (Thread c : clients) {
+      c.start();
+    }
+    for (Thread c : clients) {
+      c.join();
+    }
+    double elapsed = (System.nanoTime() - started) / 1e9;
+
+    System.out.println("op\trequests\treq/s\tp50 ms\tp90 ms\tp99 ms"
+        + "\tp99.9 ms\tmax ms\tcodes");
+    for (int op = 0; op < OPS.length; op++) {
+      Recorder all = new Recorder();
+      for (Recorder[] r : recorders) {
+        all.add(r[op]);
+      }
+      long[] lat = Arrays.copyOf(all.latencies, all.count);
+      Arrays.sort(lat);
+      System.out.println(String.format(
+          "%s\t%d\t%.0f\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f\t%s", OPS[op],
+          all.count, all.count / elapsed, percentile(lat, 50), percentile(
+              lat, 90), percentile(lat, 99), percentile(lat, 99.9),
+          percentile(lat, 100), all.codes));
+    }
+  }
+
+  /**
+   * @return the percentile of sorted nanosecond latencies, in milliseconds
+   */
+  private static double percentile(long[] sorted, double p) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int i = (int) Math.ceil(p / 100 * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / 1e6;
+  }
+
+  /**
+   * The latencies and status codes seen by one client for one operation
+   */
+  private static class Recorder {
+    long[] latencies = new long[1024];
+    int count;
+    final Map<Integer, Integer> codes = new TreeMap<Integer, Integer>();
+
+    void record(long nanos, int code) {
+      if (count == latencies.length) {
+        latencies = Arrays.copyOf(latencies, count * 2);
+      }
+      latencies[count++] = nanos;
+      Integer n = codes.get(code);
+      codes.put(code, n == null ? 1 : n + 1);
+    }
+
+    void add(Recorder other) {
+      for (int i = 0; i < other.count; i++) {
+        if (count == latencies.length) {
+          latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = other.latencies[i];
+      }
+      for (Map.Entry<Integer, Integer> e : other.codes.entrySet()) {
+        Integer n = codes.get(e.getKey());
+        codes.put(e.getKey(), (n == null ? 0 : n) + e.getValue());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes allocated by a status request between the bytes of its
+ * head and the bytes of its reply, as the front ends handle it: parsing the
+ * head in place, routing, and encoding the reply into a reused buffer. A
+ * client polling the same uuid should cost nothing once warmed up, and the
+ * run fails if it does. Run with
+ * "ant bench -Dbench.class=com.kitware.nbia.StatusAllocationBenchmark".
+ */
+public class StatusAllocationBenchmark {
+
+  private static final int REQUESTS = 1000000;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) throws Exception {
+    com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long self = Thread.currentThread().getId();
+
+    // Keep the log, but throw it away
+    NBIAAdapterHTTPServer.log = new AsyncLog(new OutputStream() {
+      public void write(int b) {
+      }
+
+      public void write(byte[] b, int off, int len) {
+      }
+    }, 8192, AsyncLog.Policy.DROP, false, 200, 65536);
+    NBIAAdapterHTTPServer.uuidStatus = new StatusTable(Long.MAX_VALUE, 16,
+        null);
+    NBIAAdapterHTTPServer.setDone("1.3.6.1.4.1.9328.50.1.42", 42L);
+
+    String[] targets = { "/status/1.3.6.1.4.1.9328.50.1.42",
+        "/status/1.3.6.1.4.1.9328.50.1.43" };
+    HttpRequest request = new HttpRequest();
+    byte[] reply = new byte[NioHttpServer.SCRATCH_SIZE];
+    boolean clean = true;
+    for (String target : targets) {
+      byte[] head = HttpReply.utf8("GET " + target + " HTTP/1.1\r\n"
+          + "Host: localhost:8080\r\n" + "User-Agent: curl/7.21.0\r\n"
+          + "Accept: application/json\r\n\r\n");
+      long allocated = 0;
+      for (int round = 0; round < ROUNDS; round++) {
+        long before = threads.getThreadAllocatedBytes(self);
+        for (int i = 0; i < REQUESTS; i++) {
+          request.reset(0);
+          if (request.parse(head, head.length) < 0) {
+            throw new IllegalStateException("Bad head for " + target);
+          }
+          HttpReply r = NBIAAdapterHTTPServer.route(request, "127.0.0.1");
+          if (r.encode(reply, 0, "HTTP/1.1", null, false) < 0) {
+            throw new IllegalStateException("Reply too large for " + target);
+          }
+        }
+        allocated = threads.getThreadAllocatedBytes(self) - before;
+        System.out.println(target + "\tround " + round + "\t" + allocated
+            + " bytes\t" + String.format("%.3f", (double) allocated
+            / REQUESTS) + " bytes/request");
+      }
+      // Allow for the odd object the runtime makes on the side
+      clean &= allocated < REQUESTS / 100;
+    }
+    if (!clean) {
+      System.out.println("The status route allocates once warmed up");
+      System.exit(1);
+    }
+  }
+
+}
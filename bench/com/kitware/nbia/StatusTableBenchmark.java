@@ -0,0 +1,126 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures status lookups per second against the number of threads doing
+ * them, for the StatusTable and for the synchronized HashMap it replaced.
+ * Run with "ant bench".
+ */
+public class StatusTableBenchmark {
+
+  private static final int UUIDS = 10000;
+  private static final long RUN_MILLIS = 2000;
+
+  interface Lookup {
+    Response get(String uuid);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+        : 2 * Runtime.getRuntime().availableProcessors();
+
+    final String[] uuids = new String[UUIDS];
+    final StatusTable table = new StatusTable(Long.MAX_VALUE, UUIDS * 2, null);
+    final HashMap<String, Response> map = new HashMap<String, Response>();
+    for (int i = 0; i < UUIDS; i++) {
+      uuids[i] = "1.3.6.1.4.1.9328.50.1." + i;
+      Response r = new Response("Download Complete.", true, (long) i);
+      table.put(StatusJournal.OP_DONE, uuids[i], r);
+      map.put(uuids[i], r);
+    }
+
+    Lookup concurrent = new Lookup() {
+      public Response get(String uuid) {
+        return table.get(uuid);
+      }
+    };
+    // The lookup as NBIAAdapterHTTPServer.getStatus used to do it
+    Lookup synchronizedMap = new Lookup() {
+      public Response get(String uuid) {
+        synchronized (map) {
+          if (!map.containsKey(uuid)) {
+            map.put(uuid, new Response("Download Not Started.", false));
+          }
+          return map.get(uuid);
+        }
+      }
+    };
+
+    System.out.println("threads\tStatusTable ops/s\tscaling\t"
+        + "synchronized ops/s\tscaling");
+    double tableBase = 0;
+    double mapBase = 0;
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      double t = run(concurrent, uuids, threads);
+      double m = run(synchronizedMap, uuids, threads);
+      if (threads == 1) {
+        tableBase = t;
+        mapBase = m;
+      }
+      System.out.println(threads + "\t" + (long) t + "\t"
+          + String.format("%.2f", t / tableBase) + "\t" + (long) m + "\t"
+          + String.format("%.2f", m / mapBase));
+    }
+  }
+
+  /**
+   * @return the lookups per second achieved by the given number of threads
+   */
+  private static double run(final Lookup lookup, final String[] uuids,
+      int threads) throws InterruptedException {
+    final AtomicLong total = new AtomicLong();
+    final CountDownLatch start = new CountDownLatch(1);
+    final long[] deadline = new long[1];
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      final int seed = i;
+      workers[i] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          long ops = 0;
+          int next = seed * 7919;
+          while (System.currentTimeMillis() < deadline[0]) {
+            for (int j = 0; j < 1000; j++) {
+              next = (next + 31) % uuids.length;
+              if (lookup.get(uuids[next]) == null) {
+                throw new IllegalStateException("missing " + uuids[next]);
+              }
+            }
+            ops += 1000;
+          }
+          total.addAndGet(ops);
+        }
+      });
+      workers[i].start();
+    }
+    deadline[0] = System.currentTimeMillis() + RUN_MILLIS;
+    start.countDown();
+    for (Thread w : workers) {
+      w.join();
+    }
+    return total.get() * 1000.0 / RUN_MILLIS;
+  }
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.OutputStream;
+
+/**
+ * Sets up the static state of NBIAAdapterHTTPServer that the status routes
+ * need, without a socket, a grid or a configuration file. The log is kept
+ * but thrown away, so that its cost stays in the measurements.
+ */
+final class BenchmarkServer {
+
+  static final int UUIDS = 10000;
+
+  private static String[] uuids;
+
+  private BenchmarkServer() {
+  }
+
+  /**
+   * @return the uuids known to the status table, all of them done
+   */
+  static synchronized String[] init() {
+    if (uuids != null) {
+      return uuids;
+    }
+    NBIAAdapterHTTPServer.log = new AsyncLog(new OutputStream() {
+      public void write(int b) {
+      }
+
+      public void write(byte[] b, int off, int len) {
+      }
+    }, 8192, AsyncLog.Policy.DROP, false, 200, 65536);
+    NBIAAdapterHTTPServer.uuidStatus = new StatusTable(Long.MAX_VALUE,
+        UUIDS * 2, null);
+    uuids = new String[UUIDS];
+    for (int i = 0; i < UUIDS; i++) {
+      uuids[i] = "1.3.6.1.4.1.9328.50.1." + i;
+      NBIAAdapterHTTPServer.setDone(uuids[i], (long) i);
+    }
+    return uuids;
+  }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extraction of a series zip by the FetchPipeline that fetchData runs, from
+ * memory to a scratch directory. The zip is synthetic but shaped like a CT
+ * series: slices of 512 x 512 16-bit pixels behind a small header, where the
+ * pixel noise keeps the deflate ratio near that of real scans.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractBenchmark {
+
+  static final int SLICE = 512 * 512 * 2;
+
+  @Param({ "64" })
+  public int slices;
+
+  @Param({ "1", "4" })
+  public int writers;
+
+  @Param({ "true", "false" })
+  public boolean preallocate;
+
+  private byte[] zip;
+  private File dir;
+
+  @Setup
+  public void setUp() throws IOException {
+    zip = seriesZip(slices);
+    dir = File.createTempFile("extract", ".bench");
+    dir.delete();
+  }
+
+  @Setup(Level.Invocation)
+  public void clear() {
+    delete(dir);
+  }
+
+  @TearDown
+  public void tearDown() {
+    delete(dir);
+  }
+
+  /**
+   * @return the number of bytes extracted
+   */
+  @Benchmark
+  public long extract() throws Exception {
+    DownloadProgress progress = new DownloadProgress();
+    new FetchPipeline(new ByteArrayInputStream(zip), dir, progress, writers,
+        preallocate).run();
+    return progress.bytesWritten;
+  }
+
+  static byte[] seriesZip(int slices) throws IOException {
+    Random random = new Random(42);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(slices * SLICE
+        / 2);
+    ZipOutputStream out = new ZipOutputStream(bytes);
+    byte[] header = new byte[2048];
+    byte[] pixels = new byte[SLICE];
+    for (int i = 0; i < slices; i++) {
+      out.putNextEntry(new ZipEntry(String.format("%06d.dcm", i)));
+      System.arraycopy("DICM".getBytes("US-ASCII"), 0, header, 128, 4);
+      out.write(header);
+      // Smooth anatomy in the high bytes, noise in the low ones
+      for (int p = 0; p < SLICE; p += 2) {
+        int x = (p / 2) % 512;
+        int y = (p / 2) / 512;
+        pixels[p] = (byte) random.nextInt(256);
+        pixels[p + 1] = (byte) (((x - 256) * (x - 256) + (y - 256)
+            * (y - 256)) >> 14);
+      }
+      out.write(pixels);
+      out.closeEntry();
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static void delete(File f) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File c : children) {
+        delete(c);
+      }
+    }
+    f.delete();
+  }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of one request between the bytes of its head and the bytes of its
+ * reply, as the NIO front end handles it: parsing the head in place, matching
+ * the route, and routing and encoding the reply into the buffer a connection
+ * reuses. No socket is involved. "ant jmh" runs it with the gc profiler,
+ * whose gc.alloc.rate.norm should stay at zero for the status routes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+  @Param({ "/status/1.3.6.1.4.1.9328.50.1.42", "/status/unknown",
+      "/nowhere" })
+  public String target;
+
+  private byte[] head;
+
+  private final HttpRequest request = new HttpRequest();
+
+  private final byte[] reply = new byte[NioHttpServer.SCRATCH_SIZE];
+
+  @Setup
+  public void setUp() {
+    BenchmarkServer.init();
+    head = HttpReply.utf8("GET " + target + " HTTP/1.1\r\n"
+        + "Host: localhost:8080\r\n" + "User-Agent: curl/7.21.0\r\n"
+        + "Accept: */*\r\n\r\n");
+  }
+
+  /**
+   * Only the parsing of the head and the matching of the route, which
+   * should allocate nothing
+   */
+  @Benchmark
+  public int parse() {
+    request.reset(0);
+    if (request.parse(head, head.length) < 0) {
+      throw new IllegalStateException();
+    }
+    return Router.resolve(Router.find(request), request);
+  }
+
+  /**
+   * Parsing, routing and encoding
+   */
+  @Benchmark
+  public int request() {
+    request.reset(0);
+    if (request.parse(head, head.length) < 0) {
+      throw new IllegalStateException();
+    }
+    HttpReply r = NBIAAdapterHTTPServer.route(request, "127.0.0.1");
+    return r.encode(reply, 0, "HTTP/1.1", null, false);
+  }
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Status lookups as /status/{uuid} answers them, JSON already encoded by the
+ * status table: alone, with pollers only, and with pollers racing a download
+ * that keeps updating its status, which pays for the encoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatusJsonBenchmark {
+
+  private String[] uuids;
+
+  @Setup
+  public void setUp() {
+    uuids = BenchmarkServer.init();
+  }
+
+  /**
+   * One thread's cursor over the uuids, so that lookups spread over the table
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+    int next;
+
+    String advance(String[] uuids) {
+      next = (next + 7919) % uuids.length;
+      return uuids[next];
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public byte[] single(Cursor c) {
+    return NBIAAdapterHTTPServer.getStatusJson(c.advance(uuids));
+  }
+
+  @Benchmark
+  @Threads(4)
+  public byte[] pollers(Cursor c) {
+    return NBIAAdapterHTTPServer.getStatusJson(c.advance(uuids));
+  }
+
+  @Benchmark
+  @Group("updated")
+  @GroupThreads(3)
+  public byte[] poll(Cursor c) {
+    return NBIAAdapterHTTPServer.getStatusJson(c.advance(uuids));
+  }
+
+  @Benchmark
+  @Group("updated")
+  @GroupThreads(1)
+  public void update(Cursor c) {
+    NBIAAdapterHTTPServer.setStatus(c.advance(uuids), new Response(
+        "Download Started", false, 1L));
+  }
+
+}
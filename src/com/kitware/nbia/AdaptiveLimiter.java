@@ -0,0 +1,171 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+/**
+ * Bounds the number of concurrent calls to the grid service and finds that
+ * bound on its own, additive increase / multiplicative decrease style. Every
+ * call that completes quickly raises the limit by 1/limit, so about one per
+ * full round of calls. A call that fails, or takes more than TOLERANCE times
+ * the baseline latency, halves it, at most once per round trip, so one
+ * overload episode only counts once. Callers over the limit wait their turn.
+ *
+ * The baseline is the fastest call of the previous window of WINDOW calls, so
+ * that it follows the service when its normal latency changes.
+ */
+public class AdaptiveLimiter {
+
+  /**
+   * A call slower than this many times the baseline signals congestion
+   */
+  static final double TOLERANCE = 2.0;
+
+  /**
+   * Number of calls over which the baseline latency is taken
+   */
+  static final int WINDOW = 100;
+
+  private int min;
+  private int max;
+
+  private double limit;
+  private int inFlight;
+  private int waiting;
+
+  private long baseline = Long.MAX_VALUE;
+  private long windowMin = Long.MAX_VALUE;
+  private int windowCount;
+  private long lastDecrease;
+
+  private long successes;
+  private long failures;
+  private long decreases;
+
+  /**
+   * Standard constructor. The limit starts at the minimum.
+   *
+   * @param min
+   *          - the lowest the limit may go
+   * @param max
+   *          - the highest the limit may go
+   */
+  public AdaptiveLimiter(int min, int max) {
+    setBounds(min, max);
+    this.limit = this.min;
+    this.lastDecrease = System.nanoTime();
+  }
+
+  /**
+   * Change the range the limit moves in, bringing the limit into it.
+   *
+   * @param min
+   *          - the lowest the limit may go
+   * @param max
+   *          - the highest the limit may go
+   */
+  public synchronized void setBounds(int min, int max) {
+    this.min = Math.max(1, min);
+    this.max = Math.max(this.min, max);
+    limit = Math.min(this.max, Math.max(this.min, limit));
+    notifyAll();
+  }
+
+  /**
+   * Wait for a free slot under the limit.
+   *
+   * @return the start time of the call, to give back to {@link #release}
+   * @throws InterruptedException
+   */
+  public synchronized long acquire() throws InterruptedException {
+    waiting++;
+    try {
+      while (inFlight >= (int) limit) {
+        wait();
+      }
+    } finally {
+      waiting--;
+    }
+    inFlight++;
+    return System.nanoTime();
+  }
+
+  /**
+   * Free the slot of a finished call and adjust the limit from its outcome.
+   *
+   * @param start
+   *          - what {@link #acquire} returned
+   * @param ok
+   *          - false if the call failed
+   */
+  public synchronized void release(long start, boolean ok) {
+    inFlight--;
+    long now = System.nanoTime();
+    long latency = now - start;
+    if (ok) {
+      successes++;
+      windowMin = Math.min(windowMin, latency);
+      if (++windowCount == WINDOW) {
+        baseline = windowMin;
+        windowMin = Long.MAX_VALUE;
+        windowCount = 0;
+      }
+    } else {
+      failures++;
+    }
+
+    boolean congested = !ok
+        || (baseline != Long.MAX_VALUE && latency > TOLERANCE * baseline);
+    if (congested) {
+      // Calls started before the last decrease saw the old limit
+      if (start > lastDecrease && limit > min) {
+        limit = Math.max(min, limit / 2);
+        lastDecrease = now;
+        decreases++;
+      }
+    } else if (limit < max) {
+      limit = Math.min(max, limit + 1 / limit);
+    }
+    notifyAll();
+  }
+
+  /**
+   * @return the current number of calls allowed at the same time
+   */
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  public synchronized int getWaiting() {
+    return waiting;
+  }
+
+  public synchronized long getSuccesses() {
+    return successes;
+  }
+
+  public synchronized long getFailures() {
+    return failures;
+  }
+
+  public synchronized long getDecreases() {
+    return decreases;
+  }
+
+}
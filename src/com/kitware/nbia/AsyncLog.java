@@ -0,0 +1,329 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A log written by a background thread. Logging a line only claims a slot in
+ * a bounded ring with a compare-and-set and stores the record, so request
+ * threads never contend on the output stream nor wait for the disk. The
+ * writer thread drains the ring in batches into a buffer and flushes it when
+ * it holds flushBytes or its oldest record is flushMillis old.
+ *
+ * When the ring is full, because the disk can't keep up, a record is either
+ * dropped (counted, and reported in the log once there is room) or the
+ * logging thread waits for room, depending on the policy.
+ *
+ * Records are written as the bare message, as the server always did, or as
+ * one JSON object per line with the time and the thread.
+ */
+class AsyncLog {
+
+  /**
+   * What to do with a record when the ring is full
+   */
+  enum Policy {
+    DROP, BLOCK
+  }
+
+  private final AtomicReferenceArray<Record> ring;
+  private final int mask;
+
+  /** Next slot a producer claims */
+  private final AtomicLong tail = new AtomicLong();
+  /** Next slot the writer reads, only written by the writer */
+  private volatile long head;
+
+  private final Writer out;
+  private final Policy policy;
+  private final boolean json;
+  private final long flushNanos;
+  private final int flushBytes;
+
+  private final AtomicLong dropped = new AtomicLong();
+  private long droppedReported;
+
+  private final Thread writer;
+  private volatile boolean sleeping;
+  private volatile boolean closed;
+
+  /**
+   * Standard constructor. Starts the writer thread.
+   *
+   * @param out
+   *          - where the records go
+   * @param capacity
+   *          - the number of records the ring holds, rounded up to a power of
+   *          two
+   * @param policy
+   *          - what to do when the ring is full
+   * @param json
+   *          - whether to write JSON records instead of bare messages
+   * @param flushMillis
+   *          - the longest a record stays buffered
+   * @param flushBytes
+   *          - the buffered size that forces a flush
+   */
+  AsyncLog(OutputStream out, int capacity, Policy policy, boolean json,
+      long flushMillis, int flushBytes) {
+    int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    this.ring = new AtomicReferenceArray<Record>(size);
+    this.mask = size - 1;
+    try {
+      this.out = new OutputStreamWriter(new BufferedOutputStream(out, Math
+          .max(8192, flushBytes)), "UTF-8");
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    this.policy = policy;
+    this.json = json;
+    this.flushNanos = flushMillis * 1000 * 1000;
+    this.flushBytes = flushBytes;
+    this.writer = new Thread(new Runnable() {
+      public void run() {
+        drainLoop();
+      }
+    }, "log writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Queue a line.
+   *
+   * @param message
+   *          - the line, without its end of line
+   */
+  void log(String message) {
+    Record r = new Record(System.currentTimeMillis(), Thread.currentThread()
+        .getName(), message);
+    while (!offer(r)) {
+      if (policy == Policy.DROP || closed) {
+        dropped.incrementAndGet();
+        return;
+      }
+      wake();
+      LockSupport.parkNanos(100 * 1000);
+    }
+    if (sleeping) {
+      wake();
+    }
+  }
+
+  /**
+   * Queue the stack trace of an exception as a single record.
+   *
+   * @param e
+   *          - the exception
+   */
+  void log(Throwable e) {
+    StringWriter trace = new StringWriter();
+    e.printStackTrace(new PrintWriter(trace));
+    String s = trace.toString();
+    log(s.endsWith("\n") ? s.substring(0, s.length() - 1) : s);
+  }
+
+  /**
+   * @return the number of records dropped because the ring was full
+   */
+  long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Write out everything queued so far and stop the writer.
+   */
+  void close() {
+    closed = true;
+    wake();
+    try {
+      writer.join(5000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private boolean offer(Record r) {
+    while (true) {
+      long t = tail.get();
+      if (t - head >= ring.length()) {
+        return false;
+      }
+      if (tail.compareAndSet(t, t + 1)) {
+        // A volatile store, so that the check of sleeping that follows
+        // can't be ordered before it
+        ring.set((int) t & mask, r);
+        return true;
+      }
+    }
+  }
+
+  private void wake() {
+    LockSupport.unpark(writer);
+  }
+
+  private void drainLoop() {
+    StringBuilder line = new StringBuilder(256);
+    int buffered = 0;
+    long oldest = 0;
+    while (true) {
+      boolean done = closed;
+      long h = head;
+      Record r;
+      while ((r = ring.get((int) h & mask)) != null) {
+        ring.lazySet((int) h & mask, null);
+        head = ++h;
+        if (buffered == 0) {
+          oldest = System.nanoTime();
+        }
+        line.setLength(0);
+        format(r, line);
+        buffered += write(line);
+        if (buffered >= flushBytes) {
+          buffered = flush();
+        }
+      }
+      long lost = dropped.get() - droppedReported;
+      if (lost > 0) {
+        droppedReported += lost;
+        line.setLength(0);
+        format(new Record(System.currentTimeMillis(), "log writer", lost
+            + " log records dropped"), line);
+        buffered += write(line);
+      }
+      if (done && h == tail.get()) {
+        flush();
+        return;
+      }
+      long wait = 1000L * 1000 * 1000;
+      if (buffered > 0) {
+        wait = oldest + flushNanos - System.nanoTime();
+        if (wait <= 0) {
+          buffered = flush();
+          continue;
+        }
+      }
+      sleeping = true;
+      if (ring.get((int) h & mask) == null && !closed) {
+        LockSupport.parkNanos(wait);
+      }
+      sleeping = false;
+    }
+  }
+
+  private int write(StringBuilder line) {
+    try {
+      out.append(line);
+    } catch (IOException e) {
+      // Nowhere left to report it
+    }
+    return line.length();
+  }
+
+  private int flush() {
+    try {
+      out.flush();
+    } catch (IOException e) {
+      // Nowhere left to report it
+    }
+    return 0;
+  }
+
+  private void format(Record r, StringBuilder line) {
+    if (!json) {
+      line.append(r.message).append('\n');
+      return;
+    }
+    line.append("{\"time\":\"").append(Iso8601.format(r.time))
+        .append("\",\"thread\":");
+    quote(r.thread, line);
+    line.append(",\"message\":");
+    quote(r.message, line);
+    line.append("}\n");
+  }
+
+  private static void quote(String s, StringBuilder out) {
+    out.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+      case '"':
+        out.append("\\\"");
+        break;
+      case '\\':
+        out.append("\\\\");
+        break;
+      case '\n':
+        out.append("\\n");
+        break;
+      case '\r':
+        out.append("\\r");
+        break;
+      case '\t':
+        out.append("\\t");
+        break;
+      default:
+        if (c < 0x20) {
+          out.append(String.format("\\u%04x", (int) c));
+        } else {
+          out.append(c);
+        }
+      }
+    }
+    out.append('"');
+  }
+
+  private static class Record {
+    final long time;
+    final String thread;
+    final String message;
+
+    Record(long time, String thread, String message) {
+      this.time = time;
+      this.thread = thread;
+      this.message = message;
+    }
+  }
+
+  /**
+   * Timestamps for the JSON records, only used by the writer thread
+   */
+  private static class Iso8601 {
+    private static final SimpleDateFormat format = new SimpleDateFormat(
+        "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    static {
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    static String format(long time) {
+      return format.format(new Date(time));
+    }
+  }
+
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.axis.AxisFault;
+
+/**
+ * Fetches many series in one JVM with a shared client. A fixed number of
+ * series download at the same time; submitting blocks while that many more
+ * are already waiting, so a long list or a query feeding the batch never
+ * piles up in memory. Each series is extracted into its own directory under
+ * the output, a line is printed as each one finishes, and a summary of the
+ * whole batch at the end.
+ */
+class BatchFetcher {
+
+  private final NBIASimpleClient client;
+  private final File output;
+  private final PrintStream out;
+  private final boolean verbose;
+
+  private final ExecutorService pool;
+  private final Semaphore slots;
+  /**
+   * Every uid submitted so far. It lives as long as the batch, about a
+   * hundred bytes a series, which is small next to the series themselves
+   * even for a batch of a million.
+   */
+  private final Set<String> seen = new HashSet<String>();
+
+  private final AtomicInteger succeeded = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+  private final AtomicInteger files = new AtomicInteger();
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final long started = System.nanoTime();
+
+  /**
+   * Standard constructor
+   *
+   * @param client
+   *          - the client shared by every download
+   * @param output
+   *          - the directory holding one directory per series
+   * @param parallel
+   *          - the number of series downloading at the same time
+   * @param out
+   *          - where to report
+   * @param verbose
+   *          - print stack traces of failures
+   */
+  BatchFetcher(NBIASimpleClient client, File output, int parallel,
+      PrintStream out, boolean verbose) {
+    this.client = client;
+    this.output = output;
+    this.out = out;
+    this.verbose = verbose;
+    final AtomicInteger count = new AtomicInteger();
+    this.pool = Executors.newFixedThreadPool(Math.max(1, parallel),
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            return new Thread(r, "batch #" + count.getAndIncrement());
+          }
+        });
+    this.slots = new Semaphore(2 * Math.max(1, parallel));
+  }
+
+  /**
+   * Queue a series, waiting while the queue is full. A series already
+   * submitted to this batch is skipped.
+   *
+   * @param uuid
+   *          - the series uuid
+   * @throws InterruptedException
+   */
+  void submit(final String uuid) throws InterruptedException {
+    if (!seen.add(uuid)) {
+      return;
+    }
+    slots.acquire();
+    pool.execute(new Runnable() {
+      public void run() {
+        try {
+          fetch(uuid);
+        } finally {
+          slots.release();
+        }
+      }
+    });
+  }
+
+  private void fetch(String uuid) {
+    File dir = new File(output, uuid);
+    dir.mkdirs();
+    DownloadProgress progress = new DownloadProgress();
+    long start = System.nanoTime();
+    String error = null;
+    Exception cause = null;
+    try {
+      client.fetchData(uuid, dir.getPath(), progress);
+    } catch (AxisFault e) {
+      error = "Internal Server Error at NBIA Site.";
+      cause = e;
+    } catch (NoDataException e) {
+      error = "No data for this series at NBIA Site.";
+      cause = e;
+    } catch (IOException e) {
+      error = "IOException when writing the series to disk.";
+      cause = e;
+    } catch (Exception e) {
+      error = "Unknown Server Error";
+      cause = e;
+    }
+    received.addAndGet(progress.bytesReceived);
+    written.addAndGet(progress.bytesWritten);
+    files.addAndGet(progress.entriesExtracted);
+    synchronized (out) {
+      if (error == null) {
+        succeeded.incrementAndGet();
+        out.println(String.format("OK      %s  %d files  %.1f MB  %.1f s",
+            uuid, progress.entriesExtracted, progress.bytesWritten / 1e6,
+            (System.nanoTime() - start) / 1e9));
+      } else {
+        failed.incrementAndGet();
+        out.println("FAILED  " + uuid + "  " + error);
+        if (verbose) {
+          cause.printStackTrace(out);
+        }
+      }
+      out.flush();
+    }
+  }
+
+  /**
+   * Wait for every queued series and print the summary.
+   *
+   * @return the number of series that failed
+   * @throws InterruptedException
+   */
+  int finish() throws InterruptedException {
+    pool.shutdown();
+    while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+      // keep waiting, downloads can take a long time
+    }
+    double seconds = (System.nanoTime() - started) / 1e9;
+    synchronized (out) {
+      out.println(String.format("%d series fetched, %d failed, %d files in "
+          + "%.1f s", succeeded.get(), failed.get(), files.get(), seconds));
+      out.println(String.format("%.1f MB received (%.2f MB/s), %.1f MB "
+          + "written (%.2f MB/s), %.1f series/min", received.get() / 1e6,
+          received.get() / 1e6 / seconds, written.get() / 1e6, written.get()
+              / 1e6 / seconds, succeeded.get() * 60 / seconds));
+      out.flush();
+    }
+    return failed.get();
+  }
+
+}
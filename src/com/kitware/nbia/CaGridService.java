@@ -0,0 +1,133 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import gov.nih.nci.cagrid.cqlquery.CQLQuery;
+import gov.nih.nci.cagrid.cqlresultset.CQLQueryResults;
+import gov.nih.nci.cagrid.data.utilities.CQLQueryResultsIterator;
+import gov.nih.nci.cagrid.ncia.client.NCIACoreServiceClient;
+import gov.nih.nci.ncia.domain.Series;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.cagrid.transfer.context.client.TransferServiceContextClient;
+import org.cagrid.transfer.context.client.helper.TransferClientHelper;
+import org.cagrid.transfer.context.stubs.types.TransferServiceContextReference;
+
+/**
+ * The NCIACoreService of a real NBIA instance, called through the stubs of
+ * the GridClientPool of its URL.
+ */
+class CaGridService implements GridService {
+
+  private final GridClientPool pool;
+
+  /**
+   * @param pool
+   *          - the stubs of the service URL
+   */
+  CaGridService(GridClientPool pool) {
+    this.pool = pool;
+  }
+
+  public Transfer retrieve(String uuid) throws Exception {
+    NCIACoreServiceClient client = pool.borrow();
+    final TransferServiceContextReference tscr;
+    boolean healthy = false;
+    try {
+      tscr = client.retrieveDicomDataBySeriesUID(uuid);
+      healthy = true;
+    } finally {
+      pool.release(client, healthy);
+    }
+    return new Transfer() {
+      public InputStream open() throws Exception {
+        final TransferServiceContextClient tclient =
+          new TransferServiceContextClient(tscr.getEndpointReference());
+
+        InputStream istream = TransferClientHelper.getData(tclient
+            .getDataTransferDescriptor());
+
+        if (istream == null) {
+          tclient.destroy();
+          return null;
+        }
+
+        return new FilterInputStream(istream) {
+          public void close() throws IOException {
+            try {
+              super.close();
+            } finally {
+              tclient.destroy();
+            }
+          }
+        };
+      }
+    };
+  }
+
+  public Iterator<String> query(CQLQuery query) throws Exception {
+    NCIACoreServiceClient client = pool.borrow();
+    CQLQueryResults result;
+    boolean healthy = false;
+    try {
+      result = client.query(query);
+      healthy = true;
+    } finally {
+      pool.release(client, healthy);
+    }
+
+    if (result == null) {
+      return null;
+    }
+    final CQLQueryResultsIterator iter = new CQLQueryResultsIterator(result);
+    return new Iterator<String>() {
+      private String next = advance();
+
+      private String advance() {
+        while (iter.hasNext()) {
+          Series obj = (Series) iter.next();
+          if (obj != null) {
+            return obj.getInstanceUID();
+          }
+        }
+        return null;
+      }
+
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      public String next() {
+        if (next == null) {
+          throw new NoSuchElementException();
+        }
+        String ret = next;
+        next = advance();
+        return ret;
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+}
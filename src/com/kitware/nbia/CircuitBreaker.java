@@ -0,0 +1,169 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+/**
+ * Stops calling the grid service once it is clearly down. After a run of
+ * consecutive failed calls the breaker opens and every call is refused at
+ * once, instead of tying up a thread until the socket times out. Once the
+ * open period is over a single probe call is let through: if it succeeds the
+ * breaker closes, if it fails the breaker opens again.
+ *
+ * Each call allowed gets the generation of the breaker, which changes every
+ * time it opens. The outcome of a call of an earlier generation, allowed
+ * before the breaker opened but finishing after, is ignored, so that only
+ * the probe decides how a half-open breaker goes.
+ */
+public class CircuitBreaker {
+
+  public static final String CLOSED = "closed";
+  public static final String OPEN = "open";
+  public static final String HALF_OPEN = "half-open";
+
+  private int threshold;
+  private long openMillis;
+
+  private String state = CLOSED;
+  private long generation;
+  private int consecutiveFailures;
+  private long openedAt;
+  private boolean probing;
+  private long trips;
+  private long rejected;
+
+  /**
+   * Standard constructor
+   *
+   * @param threshold
+   *          - the number of consecutive failures that opens the breaker
+   * @param openMillis
+   *          - how long the breaker stays open before a probe
+   */
+  public CircuitBreaker(int threshold, long openMillis) {
+    setThreshold(threshold, openMillis);
+  }
+
+  /**
+   * @param threshold
+   *          - the number of consecutive failures that opens the breaker
+   * @param openMillis
+   *          - how long the breaker stays open before a probe
+   */
+  public synchronized void setThreshold(int threshold, long openMillis) {
+    this.threshold = Math.max(1, threshold);
+    this.openMillis = openMillis;
+  }
+
+  /**
+   * Ask to make a call. A caller that is allowed must report the outcome with
+   * {@link #success}, {@link #failure} or, if the call was not made after
+   * all, {@link #cancel}.
+   *
+   * @return the ticket to report with, or -1 if the call must not be made
+   */
+  public synchronized long allow() {
+    if (state == OPEN) {
+      if (System.currentTimeMillis() - openedAt < openMillis) {
+        rejected++;
+        return -1;
+      }
+      state = HALF_OPEN;
+    }
+    if (state == HALF_OPEN) {
+      if (probing) {
+        rejected++;
+        return -1;
+      }
+      probing = true;
+    }
+    return generation;
+  }
+
+  /**
+   * Report a call that went through.
+   *
+   * @param ticket
+   *          - what {@link #allow} returned
+   */
+  public synchronized void success(long ticket) {
+    if (ticket != generation) {
+      return;
+    }
+    consecutiveFailures = 0;
+    probing = false;
+    state = CLOSED;
+  }
+
+  /**
+   * Report a call that failed.
+   *
+   * @param ticket
+   *          - what {@link #allow} returned
+   */
+  public synchronized void failure(long ticket) {
+    if (ticket != generation) {
+      return;
+    }
+    consecutiveFailures++;
+    if (state == HALF_OPEN || consecutiveFailures >= threshold) {
+      trips++;
+      generation++;
+      state = OPEN;
+      openedAt = System.currentTimeMillis();
+    }
+    probing = false;
+  }
+
+  /**
+   * Report a call that was allowed but never reached the service, e.g.
+   * interrupted while waiting for the limiter. A probe lets the next call
+   * probe instead.
+   *
+   * @param ticket
+   *          - what {@link #allow} returned
+   */
+  public synchronized void cancel(long ticket) {
+    if (ticket == generation && state == HALF_OPEN) {
+      probing = false;
+    }
+  }
+
+  /**
+   * @return how long until the next probe is let through, 0 unless open
+   */
+  public synchronized long getRetryMillis() {
+    if (state != OPEN) {
+      return 0;
+    }
+    return Math.max(0, openedAt + openMillis - System.currentTimeMillis());
+  }
+
+  /**
+   * @return CLOSED, OPEN or HALF_OPEN
+   */
+  public synchronized String getState() {
+    return state;
+  }
+
+  public synchronized long getTrips() {
+    return trips;
+  }
+
+  public synchronized long getRejected() {
+    return rejected;
+  }
+
+}
@@ -49,7 +49,38 @@ public class Configurator {
     props.setProperty("clientDownloadLocation", "NBIAGridClientDownload");
     props.setProperty("serverPort", "8080");
     props.setProperty("serverWorkers", "5");
+    props.setProperty("serverDownloads", "4");
+    props.setProperty("serverMaxQueued", "1000");
+    props.setProperty("batchDownloads", "4");
+    props.setProperty("gridClientMaxIdle", "8");
+    props.setProperty("gridClientIdleSeconds", "300");
+    props.setProperty("gridConcurrencyMin", "1");
+    props.setProperty("gridConcurrencyMax", "32");
+    props.setProperty("gridRetries", "3");
+    props.setProperty("gridRetryBaseMillis", "1000");
+    props.setProperty("gridRetryMaxMillis", "30000");
+    props.setProperty("gridBreakerFailures", "5");
+    props.setProperty("gridBreakerOpenSeconds", "30");
+    props.setProperty("fetchWriters", "4");
+    props.setProperty("fetchPreallocate", "true");
+    props.setProperty("cacheMaxBytes", "10737418240");
+    props.setProperty("cachePartialTtlSeconds", "86400");
+    props.setProperty("statusJournal", "");
+    props.setProperty("statusTtlSeconds", "86400");
+    props.setProperty("statusMaxEntries", "100000");
+    props.setProperty("statusMaxWaitSeconds", "120");
+    props.setProperty("statusMaxWaiters", "64");
     props.setProperty("serverTimeout", "0");
+    props.setProperty("serverMode", "pool");
+    props.setProperty("logFormat", "text");
+    props.setProperty("logPolicy", "drop");
+    props.setProperty("logQueue", "8192");
+    props.setProperty("logFlushMillis", "200");
+    props.setProperty("logFlushBytes", "65536");
+    props.setProperty("queryDirectory", "cql");
+    props.setProperty("queryCacheTtlSeconds", "300");
+    props.setProperty("queryCacheMaxEntries", "100");
+    props.setProperty("queryCacheMaxResults", "100000");
   }
 
   /**
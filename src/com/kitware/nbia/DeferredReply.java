@@ -0,0 +1,72 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A reply that is not ready yet, such as a status waiting for the download to
+ * move. The front ends recognize it: the pool worker waits for it, the NIO
+ * front end leaves the connection on the selector and answers once it is
+ * told the reply is ready, so that no thread is tied up meanwhile.
+ */
+abstract class DeferredReply extends HttpReply {
+
+  /**
+   * Told the reply once it is ready
+   */
+  interface Callback {
+    /**
+     * Called exactly once, on any thread, possibly before start returns.
+     *
+     * @param reply
+     *          - the complete reply
+     */
+    void ready(HttpReply reply);
+  }
+
+  DeferredReply() {
+    super(HTTP_OK, "OK", null, new byte[0]);
+  }
+
+  /**
+   * Start waiting for the reply.
+   *
+   * @param callback
+   *          - told the reply when it is ready
+   */
+  abstract void start(Callback callback);
+
+  /**
+   * Wait for the reply on the calling thread.
+   *
+   * @return the complete reply
+   * @throws InterruptedException
+   */
+  HttpReply await() throws InterruptedException {
+    final CountDownLatch ready = new CountDownLatch(1);
+    final HttpReply[] reply = new HttpReply[1];
+    start(new Callback() {
+      public void ready(HttpReply r) {
+        reply[0] = r;
+        ready.countDown();
+      }
+    });
+    ready.await();
+    return reply[0];
+  }
+
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs series downloads on their own executor so that the HTTP workers only
+ * ever have to enqueue a job and reply. The number of concurrent transfers is
+ * sized independently of the number of connection workers, or every transfer
+ * gets its own virtual thread when the server runs in virtual mode.
+ *
+ * Jobs are single-flight per series uuid: while a series is queued or
+ * downloading, further requests for it attach to the running job instead of
+ * starting a second transfer into the same directory.
+ *
+ * The queue can be bounded, so that a burst of requests is turned away early
+ * with an estimate of when to come back rather than piling up behind a slow
+ * grid.
+ */
+public class DownloadEngine {
+
+  /**
+   * The executor running the transfers
+   */
+  private final ExecutorService executor;
+
+  /**
+   * The number of jobs running and waiting for a transfer slot
+   */
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger queued = new AtomicInteger();
+
+  /**
+   * The disk cache the transfers extract into
+   */
+  private final SeriesCache cache;
+
+  /**
+   * Source of the job ids handed back to the clients
+   */
+  private final AtomicLong nextJobId = new AtomicLong();
+
+  /**
+   * The queued and running jobs, keyed by series uuid
+   */
+  private final ConcurrentMap<String, DownloadJob> inFlight =
+    new ConcurrentHashMap<String, DownloadJob>();
+
+  /**
+   * The number of jobs allowed to wait for a transfer slot
+   */
+  private volatile int maxQueued = Integer.MAX_VALUE;
+
+  /**
+   * Moving average of the time a job takes, in milliseconds, guessed at
+   * until the first job completes
+   */
+  private volatile double meanJobMillis = 60 * 1000;
+
+  /**
+   * Standard constructor
+   *
+   * @param threads
+   *          - the number of transfers allowed to run at the same time
+   * @param cache
+   *          - the disk cache the transfers extract into
+   */
+  public DownloadEngine(int threads, SeriesCache cache) {
+    this(newPool(threads), cache);
+  }
+
+  /**
+   * Constructor running the transfers on the given executor
+   *
+   * @param executor
+   *          - the executor running the transfers
+   * @param cache
+   *          - the disk cache the transfers extract into
+   */
+  public DownloadEngine(ExecutorService executor, SeriesCache cache) {
+    this.executor = executor;
+    this.cache = cache;
+  }
+
+  /**
+   * @return a fixed pool of platform threads named after downloads
+   */
+  private static ExecutorService newPool(int threads) {
+    final AtomicInteger count = new AtomicInteger();
+    return new ThreadPoolExecutor(threads, threads, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            return new Thread(r, "download #" + count.getAndIncrement());
+          }
+        });
+  }
+
+  /**
+   * Make sure new job ids do not collide with ids handed out before a
+   * restart.
+   *
+   * @param id
+   *          - the highest job id already in use
+   */
+  public void skipJobIds(long id) {
+    if (nextJobId.get() < id) {
+      nextJobId.set(id);
+    }
+  }
+
+  /**
+   * @param maxQueued
+   *          - the number of jobs allowed to wait for a transfer slot
+   */
+  public void setMaxQueued(int maxQueued) {
+    this.maxQueued = maxQueued;
+  }
+
+  /**
+   * Queue the download of a series, or attach to the job already in flight
+   * for it. A series already in the cache is marked done straight away. This
+   * never blocks on the transfer itself.
+   *
+   * @param uuid
+   *          - the series uuid of the dataset requested
+   * @return the job that will produce the series, or null if the queue is
+   *         full
+   */
+  public DownloadJob submit(String uuid) {
+    DownloadJob running = inFlight.get(uuid);
+    if (running != null) {
+      running.attach();
+      return running;
+    }
+    DownloadJob job = new DownloadJob(nextJobId.incrementAndGet(), uuid, cache);
+    if (cache.lookup(uuid)) {
+      NBIAAdapterHTTPServer.log("Serving " + uuid + " from the cache");
+      NBIAAdapterHTTPServer.setDone(uuid, job.getId());
+      return job;
+    }
+    running = inFlight.putIfAbsent(uuid, job);
+    if (running != null) {
+      running.attach();
+      return running;
+    }
+    int depth;
+    do {
+      depth = queued.get();
+      if (depth >= maxQueued) {
+        inFlight.remove(uuid, job);
+        return null;
+      }
+    } while (!queued.compareAndSet(depth, depth + 1));
+    NBIAAdapterHTTPServer.setStatus(uuid, new Response("Download Queued.",
+        false, job.getId()));
+    executor.execute(new Completion(job));
+    return job;
+  }
+
+  /**
+   * @return the number of series queued or downloading
+   */
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  /**
+   * @return the number of transfers currently running
+   */
+  public int getActiveCount() {
+    return active.get();
+  }
+
+  /**
+   * @return the number of jobs waiting for a free transfer slot
+   */
+  public int getQueueDepth() {
+    return queued.get();
+  }
+
+  /**
+   * Guess how long a job submitted now would wait before it starts, from the
+   * queue depth and the average job time.
+   *
+   * @return the estimated wait in seconds, between 1 and an hour
+   */
+  public long estimateWaitSeconds() {
+    double slots = Math.max(1, active.get());
+    double seconds = (queued.get() + 1) * meanJobMillis / slots / 1000;
+    return Math.max(1, Math.min(3600, (long) Math.ceil(seconds)));
+  }
+
+  /**
+   * Stop accepting jobs. Running transfers are allowed to finish.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Runs a job and releases its uuid once the final status has been recorded,
+   * so that a later request starts a fresh job.
+   */
+  private class Completion implements Runnable {
+    private final DownloadJob job;
+
+    Completion(DownloadJob job) {
+      this.job = job;
+    }
+
+    public void run() {
+      queued.decrementAndGet();
+      active.incrementAndGet();
+      long start = System.currentTimeMillis();
+      try {
+        job.run();
+      } finally {
+        long took = System.currentTimeMillis() - start;
+        meanJobMillis = 0.8 * meanJobMillis + 0.2 * took;
+        active.decrementAndGet();
+        inFlight.remove(job.getUuid(), job);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.axis.AxisFault;
+
+/**
+ * A single series download queued on the DownloadEngine. The job reports its
+ * progress through the server's status table.
+ */
+public class DownloadJob implements Runnable {
+
+  private final long id;
+  private final String uuid;
+  private final SeriesCache cache;
+  /** When the job was queued, for the download metrics */
+  private final long queued = System.nanoTime();
+
+  /**
+   * The number of requests sharing this job
+   */
+  private final AtomicInteger requests = new AtomicInteger(1);
+
+  /**
+   * Standard constructor
+   *
+   * @param id
+   *          - the id handed back to the client
+   * @param uuid
+   *          - the series uuid of the dataset requested
+   * @param cache
+   *          - the disk cache to extract into
+   */
+  DownloadJob(long id, String uuid, SeriesCache cache) {
+    this.id = id;
+    this.uuid = uuid;
+    this.cache = cache;
+  }
+
+  /**
+   * @return the id handed back to the client
+   */
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * @return the series uuid of the dataset requested
+   */
+  public String getUuid() {
+    return uuid;
+  }
+
+  /**
+   * Record one more request sharing the outcome of this job
+   */
+  void attach() {
+    int n = requests.incrementAndGet();
+    NBIAAdapterHTTPServer.log("Attached request #" + n + " to job " + id
+        + " for " + uuid);
+  }
+
+  /**
+   * @return the number of requests sharing this job
+   */
+  public int getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * Download the series, trying again after a transient grid fault as the
+   * client's RetryPolicy allows. Each attempt resumes from the files the
+   * previous ones completed.
+   */
+  public void run() {
+    NBIAAdapterHTTPServer.log("Fetching " + uuid + " (job " + id + ")");
+    NBIASimpleClient nbia = NBIAAdapterHTTPServer.setupClient();
+    RetryPolicy policy = nbia.getRetryPolicy();
+    long started = System.nanoTime();
+    boolean ok = false;
+    try {
+      for (int attempt = 1;; attempt++) {
+        try {
+          attempt(nbia);
+          ok = true;
+          return;
+        } catch (Exception e) {
+          if (attempt > policy.getRetries() || !RetryPolicy.isTransient(e)) {
+            throw e;
+          }
+          long delay = policy.delay(attempt);
+          Metrics.retries.incrementAndGet();
+          NBIAAdapterHTTPServer.log("Attempt " + attempt + " at " + uuid
+              + " failed (" + e + "), retrying in " + delay + " ms");
+          NBIAAdapterHTTPServer.setStatus(uuid, new Response(
+              "Retrying after a grid fault.", false, id));
+          Thread.sleep(delay);
+        }
+      }
+    } catch (GridUnavailableException e) {
+      fail("NBIA Site unavailable, try again later.", e);
+    } catch (AxisFault e) {
+      fail("Internal Server Error at NBIA Site.", e);
+    } catch (NoDataException e) {
+      fail("No data for this series at NBIA Site.", e);
+    } catch (IOException e) {
+      fail("IOException when writing the series to disk.", e);
+    } catch (Exception e) {
+      fail("Unknown Server Error", e);
+    } finally {
+      long now = System.nanoTime();
+      Metrics.download(ok, now - queued, now - started);
+    }
+  }
+
+  private void attempt(NBIASimpleClient nbia) throws Exception {
+    DownloadProgress progress = new DownloadProgress();
+    progress.setListener(new Runnable() {
+      public void run() {
+        NBIAAdapterHTTPServer.setProgressed(uuid);
+      }
+    });
+    Response started = new Response("Download Started", false, id);
+    started.progress = progress;
+    NBIAAdapterHTTPServer.setStatus(uuid, started);
+    String output = cache.prepare(uuid).getPath();
+    nbia.fetchData(uuid, output, progress); // THE LONG PROCESS
+    cache.record(uuid);
+    NBIAAdapterHTTPServer.setDone(uuid, id);
+  }
+
+  /**
+   * Record a failed download. What was extracted stays in the cache as a
+   * partial series with its manifest, so that the next attempt only writes
+   * the missing files, unless the grid refused the series itself.
+   *
+   * @param err
+   *          - the message reported to the client
+   * @param e
+   *          - the cause
+   */
+  private void fail(String err, Exception e) {
+    if (e instanceof NoDataException
+        || (e instanceof RemoteException && !RetryPolicy.isTransient(e))) {
+      cache.discard(uuid);
+    } else {
+      cache.keepPartial(uuid);
+    }
+    NBIAAdapterHTTPServer.log(err);
+    NBIAAdapterHTTPServer.setFailure(uuid, err, id);
+    NBIAAdapterHTTPServer.log(e);
+  }
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Live counters of a running transfer. The counters are plain volatile fields,
+ * read by the status requests through Gson. The network counters have a
+ * single writer (the reader stage); the disk counters are shared by the writer
+ * threads and updated with compare-and-set, so no update ever takes a lock.
+ * The throughput is recomputed at most once per second, as bytes are received, and brought down when the status is read while none
+ * arrive.
+ */
+public class DownloadProgress {
+
+  /**
+   * How often the throughput is recomputed
+   */
+  private static final long WINDOW_NANOS = 1000L * 1000 * 1000;
+
+  private static final AtomicLongFieldUpdater<DownloadProgress> WRITTEN =
+    AtomicLongFieldUpdater.newUpdater(DownloadProgress.class, "bytesWritten");
+  private static final AtomicIntegerFieldUpdater<DownloadProgress> ENTRIES =
+    AtomicIntegerFieldUpdater.newUpdater(DownloadProgress.class,
+        "entriesExtracted");
+
+  /** Compressed bytes received from the grid */
+  public volatile long bytesReceived;
+  /** Files extracted from the series zip */
+  public volatile int entriesExtracted;
+  /** Files left alone because an earlier attempt had completed them */
+  public volatile int entriesSkipped;
+  /** Bytes written to disk */
+  public volatile long bytesWritten;
+  /** Compressed bytes received per second over the last window */
+  public volatile long bytesPerSecond;
+  /** When bytes were last received, in milliseconds since the epoch */
+  public volatile long lastProgressMillis = System.currentTimeMillis();
+
+  private transient volatile long windowStart = System.nanoTime();
+  private transient volatile long windowBytes;
+  /** When refresh() last brought the throughput down */
+  private transient volatile long refreshedAt = windowStart;
+  /** Bumped each time the throughput is recomputed */
+  private transient volatile int ticks;
+  /** Run each time the throughput is recomputed, or null */
+  private transient Runnable listener;
+
+  /**
+   * @param listener
+   *          - run about once a second while the transfer moves, on the
+   *          thread receiving it
+   */
+  void setListener(Runnable listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Count bytes received from the grid
+   *
+   * @param n
+   *          - the number of bytes
+   */
+  void received(long n) {
+    long total = bytesReceived + n;
+    bytesReceived = total;
+    lastProgressMillis = System.currentTimeMillis();
+    Metrics.bytesReceived.add(n);
+    long now = System.nanoTime();
+    long elapsed = now - windowStart;
+    if (elapsed >= WINDOW_NANOS) {
+      long rate = (total - windowBytes) * WINDOW_NANOS / elapsed;
+      bytesPerSecond = rate;
+      windowStart = now;
+      windowBytes = total;
+      ticks++;
+      if (listener != null) {
+        listener.run();
+      }
+    }
+  }
+
+  /**
+   * Bring the throughput down to what arrived since it was last recomputed,
+   * when that was over a second ago, so that a stalled transfer doesn't keep
+   * its last rate. Run by the readers of the status, at most once a second.
+   */
+  void refresh() {
+    long now = System.nanoTime();
+    long start = windowStart;
+    if (now - start < WINDOW_NANOS || now - refreshedAt < WINDOW_NANOS) {
+      return;
+    }
+    refreshedAt = now;
+    long rate = (bytesReceived - windowBytes) * WINDOW_NANOS / (now - start);
+    if (rate >= bytesPerSecond) {
+      return;
+    }
+    bytesPerSecond = rate;
+    ticks++;
+  }
+
+  /**
+   * @return a count that changes about once a second while the transfer
+   *         moves or stalls, so that a copy of the counters can tell it is
+   *         stale
+   */
+  int getTicks() {
+    return ticks;
+  }
+
+  /**
+   * Count bytes written to disk
+   *
+   * @param n
+   *          - the number of bytes
+   */
+  void written(long n) {
+    WRITTEN.addAndGet(this, n);
+    Metrics.bytesWritten.add(n);
+  }
+
+  /**
+   * Count one more extracted file
+   */
+  void entryDone() {
+    ENTRIES.incrementAndGet(this);
+  }
+
+  /**
+   * Count one more file found complete on disk, from the inflater only
+   */
+  void entrySkipped() {
+    entriesSkipped++;
+  }
+
+}
@@ -0,0 +1,522 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import gov.nih.nci.ivi.utils.ZipEntryInputStream;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts a series zip in three overlapping stages:
+ *
+ * <ol>
+ * <li>a reader thread drains the transfer stream into a bounded ring of
+ * buffers,</li>
+ * <li>the calling thread inflates the zip entries out of that ring,</li>
+ * <li>a pool of writer threads writes the inflated entries to disk.</li>
+ * </ol>
+ *
+ * The stages are connected by bounded queues, so a slow disk holds back the
+ * inflater and, through it, the network reads. The time to fetch a series
+ * approaches the slowest of network, inflation and disk instead of their sum.
+ *
+ * A series is mostly many small files, so the writers work on whole entries:
+ * each entry goes to the least busy writer, which writes it through a
+ * FileChannel with a single gather write, and with the file preallocated to
+ * its final size if asked to. Entries too big to buffer whole are streamed to
+ * one writer piece by piece. The open/close latency of one file overlaps the
+ * writes of the others. The first buffer of an entry is a small one, so that
+ * the many small entries waiting for a writer don't each hold a whole CHUNK.
+ * An entry whose name would put it outside the directory fails the fetch.
+ *
+ * Every entry written completely is recorded in the SeriesManifest of the
+ * directory. When an earlier attempt failed halfway, the entries it completed
+ * are still inflated (the zip stream has to be read through) and their CRC
+ * checked against the manifest, but they are not written again.
+ */
+class FetchPipeline {
+
+  /**
+   * Size of the buffers passed between the stages
+   */
+  static final int CHUNK = 256 * 1024;
+
+  /**
+   * Size of the first inflated buffer of each entry
+   */
+  static final int HEAD = 32 * 1024;
+
+  /**
+   * Number of network buffers between the reader and the inflater
+   */
+  static final int RING = 8;
+
+  /**
+   * Number of pieces waiting for each writer
+   */
+  static final int PIECES = 4;
+
+  /**
+   * Entries up to this size are buffered whole before being written
+   */
+  static final int WHOLE_ENTRY = 1024 * 1024;
+
+  /**
+   * How long a stage waits on a queue before checking for a failure
+   */
+  private static final long POLL_MILLIS = 100;
+
+  private final InputStream source;
+  private final File dir;
+  private final DownloadProgress progress;
+  private final boolean preallocate;
+  private SeriesManifest manifest;
+  /** The canonical path of dir, ending with a separator */
+  private String root;
+
+  private final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<Chunk>(
+      RING);
+  private final BlockingQueue<byte[]> freeChunks = new ArrayBlockingQueue<byte[]>(
+      RING + 2);
+
+  /**
+   * One queue per writer thread
+   */
+  private final List<BlockingQueue<Piece>> pieces =
+    new ArrayList<BlockingQueue<Piece>>();
+
+  /**
+   * Inflated buffers handed back by the writers, of CHUNK and HEAD bytes
+   */
+  private final BlockingQueue<byte[]> freeSegments;
+  private final BlockingQueue<byte[]> freeHeads;
+
+  /**
+   * The first error raised by any stage; the others stop when they see it
+   */
+  private volatile Throwable failure;
+
+  /**
+   * Set once the inflater is done; the reader may still be waiting on data the
+   * zip does not need (the central directory)
+   */
+  private volatile boolean stopped;
+
+  /**
+   * Standard constructor
+   *
+   * @param source
+   *          - the transfer stream carrying the series zip
+   * @param dir
+   *          - the directory to extract into
+   * @param progress
+   *          - the counters to update
+   * @param writers
+   *          - the number of writer threads
+   * @param preallocate
+   *          - whether to size files before writing them
+   */
+  FetchPipeline(InputStream source, File dir, DownloadProgress progress,
+      int writers, boolean preallocate) {
+    this.source = source;
+    this.dir = dir;
+    this.progress = progress;
+    this.preallocate = preallocate;
+    for (int i = 0; i < Math.max(1, writers); i++) {
+      pieces.add(new ArrayBlockingQueue<Piece>(PIECES));
+    }
+    this.freeSegments = new ArrayBlockingQueue<byte[]>(WHOLE_ENTRY / CHUNK
+        * (pieces.size() + 1));
+    this.freeHeads = new ArrayBlockingQueue<byte[]>((PIECES + 1)
+        * (pieces.size() + 1));
+  }
+
+  /**
+   * Run the pipeline until the whole zip is on disk.
+   *
+   * @throws Exception
+   *           the first error raised by any of the stages
+   */
+  void run() throws Exception {
+    if (!dir.exists()) {
+      dir.mkdirs();
+    }
+    root = dir.getCanonicalPath() + File.separator;
+    manifest = new SeriesManifest(dir);
+    Thread reader = new Thread(new Runnable() {
+      public void run() {
+        try {
+          read();
+        } catch (Throwable t) {
+          if (!stopped) {
+            fail(t);
+          }
+        }
+      }
+    }, "fetch reader " + dir.getName());
+    List<Thread> writers = new ArrayList<Thread>();
+    for (final BlockingQueue<Piece> queue : pieces) {
+      writers.add(new Thread(new Runnable() {
+        public void run() {
+          try {
+            write(queue);
+          } catch (Throwable t) {
+            fail(t);
+          }
+        }
+      }, "fetch writer #" + writers.size() + " " + dir.getName()));
+    }
+    reader.start();
+    for (Thread w : writers) {
+      w.start();
+    }
+    try {
+      inflate();
+      for (BlockingQueue<Piece> queue : pieces) {
+        put(queue, Piece.END);
+      }
+    } catch (Throwable t) {
+      fail(t);
+    } finally {
+      stopped = true;
+      for (Thread w : writers) {
+        w.join();
+      }
+      source.close();
+      reader.join();
+      if (failure == null) {
+        manifest.delete();
+      } else {
+        manifest.close();
+      }
+    }
+    if (failure instanceof Exception) {
+      throw (Exception) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+  }
+
+  private void fail(Throwable t) {
+    if (failure == null) {
+      failure = t;
+    }
+  }
+
+  /**
+   * Reader stage: fill buffers from the network.
+   */
+  private void read() throws IOException, InterruptedException {
+    while (failure == null) {
+      byte[] b = freeChunks.poll();
+      if (b == null) {
+        b = new byte[CHUNK];
+      }
+      int n = 0;
+      int r = 0;
+      while (n < b.length && (r = source.read(b, n, b.length - n)) > 0) {
+        n += r;
+        progress.received(r);
+      }
+      if (n > 0) {
+        put(chunks, new Chunk(b, n));
+      }
+      if (r < 0) {
+        put(chunks, Chunk.EOF);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Inflater stage: pull the zip entries out of the network buffers and hand
+   * them to the writers.
+   */
+  private void inflate() throws IOException, InterruptedException {
+    ZipInputStream zis = new ZipInputStream(new ChunkInputStream());
+    while (failure == null) {
+      ZipEntryInputStream zeis;
+      try {
+        zeis = new ZipEntryInputStream(zis);
+      } catch (EOFException e) {
+        break;
+      }
+      String name = zeis.getName();
+      File target = new File(dir, name);
+      if (!target.getCanonicalPath().startsWith(root)) {
+        throw new IOException("Entry " + name + " is outside of " + dir);
+      }
+      SeriesManifest.Entry done = manifest.completed(name, target);
+      if (done != null) {
+        verify(zeis, name, done);
+        continue;
+      }
+      BlockingQueue<Piece> writer = leastBusyWriter();
+      List<ByteBuffer> buffered = new ArrayList<ByteBuffer>();
+      CRC32 crc = new CRC32();
+      long size = 0;
+      boolean first = true;
+      boolean last = false;
+      while (!last) {
+        ByteBuffer b = fill(zeis, buffered.isEmpty() && first);
+        last = b.remaining() < b.capacity();
+        size += b.remaining();
+        crc.update(b.array(), 0, b.remaining());
+        buffered.add(b);
+        if (last) {
+          // The whole entry is known: its size can be preallocated
+          Piece p = new Piece(target, name, buffered, first, true, first ? size
+              : -1);
+          p.total = size;
+          p.crc = crc.getValue();
+          put(writer, p);
+        } else if (!first || size >= WHOLE_ENTRY) {
+          put(writer, new Piece(target, name, buffered, first, false, -1));
+          buffered = new ArrayList<ByteBuffer>();
+          first = false;
+        }
+      }
+    }
+    zis.close();
+  }
+
+  /**
+   * Read through an entry that an earlier attempt already wrote, checking
+   * that it is the same content.
+   */
+  private void verify(InputStream in, String name, SeriesManifest.Entry done)
+      throws IOException {
+    byte[] b = freeSegments.poll();
+    if (b == null) {
+      b = new byte[CHUNK];
+    }
+    CRC32 crc = new CRC32();
+    long size = 0;
+    int r;
+    while ((r = in.read(b)) >= 0) {
+      crc.update(b, 0, r);
+      size += r;
+    }
+    freeSegments.offer(b);
+    if (size != done.size || crc.getValue() != done.crc) {
+      manifest.forget(name);
+      throw new IOException("Entry " + name
+          + " changed since the last attempt");
+    }
+    progress.entrySkipped();
+  }
+
+  /**
+   * @param head
+   *          - true for the first buffer of the entry
+   * @return a buffer filled from the entry, only partly filled at its end
+   */
+  private ByteBuffer fill(InputStream in, boolean head) throws IOException {
+    byte[] b = head ? freeHeads.poll() : freeSegments.poll();
+    if (b == null) {
+      b = new byte[head ? HEAD : CHUNK];
+    }
+    int n = 0;
+    int r;
+    while (n < b.length && (r = in.read(b, n, b.length - n)) > 0) {
+      n += r;
+    }
+    return ByteBuffer.wrap(b, 0, n);
+  }
+
+  /**
+   * @return the writer queue with the most free room
+   */
+  private BlockingQueue<Piece> leastBusyWriter() {
+    BlockingQueue<Piece> best = pieces.get(0);
+    for (BlockingQueue<Piece> q : pieces) {
+      if (q.remainingCapacity() > best.remainingCapacity()) {
+        best = q;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Writer stage: write the pieces of its queue to their files.
+   */
+  private void write(BlockingQueue<Piece> queue) throws IOException,
+      InterruptedException {
+    RandomAccessFile file = null;
+    FileChannel channel = null;
+    try {
+      while (true) {
+        Piece p = take(queue);
+        if (p == Piece.END) {
+          return;
+        }
+        if (p.first) {
+          file = new RandomAccessFile(p.file, "rw");
+          file.setLength(preallocate && p.size >= 0 ? p.size : 0);
+          channel = file.getChannel();
+        }
+        ByteBuffer[] buffers = p.buffers.toArray(new ByteBuffer[0]);
+        long n = 0;
+        while (n < p.length) {
+          n += channel.write(buffers);
+        }
+        progress.written(n);
+        for (ByteBuffer b : buffers) {
+          byte[] a = b.array();
+          (a.length == HEAD ? freeHeads : freeSegments).offer(a);
+        }
+        if (p.last) {
+          channel.close();
+          file.close();
+          file = null;
+          manifest.complete(p.name, p.total, p.crc);
+          progress.entryDone();
+        }
+      }
+    } finally {
+      if (file != null) {
+        file.close();
+      }
+    }
+  }
+
+  /**
+   * Put on a bounded queue, giving up if the pipeline stopped.
+   */
+  private <T> void put(BlockingQueue<T> q, T item) throws InterruptedException {
+    while (!q.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+      if (failure != null || stopped) {
+        throw new InterruptedException("Pipeline stopped");
+      }
+    }
+  }
+
+  /**
+   * Take from a bounded queue, giving up if the pipeline stopped.
+   */
+  private <T> T take(BlockingQueue<T> q) throws InterruptedException {
+    T item;
+    while ((item = q.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+      if (failure != null || stopped) {
+        throw new InterruptedException("Pipeline stopped");
+      }
+    }
+    return item;
+  }
+
+  /**
+   * The inflater's view of the network buffers
+   */
+  private class ChunkInputStream extends InputStream {
+    private Chunk current;
+    private int pos;
+
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (current == null || pos == current.length) {
+        if (current == Chunk.EOF) {
+          return -1;
+        }
+        if (current != null) {
+          freeChunks.offer(current.data);
+        }
+        try {
+          current = take(chunks);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException(e.getMessage());
+        }
+        pos = 0;
+        if (current == Chunk.EOF) {
+          return -1;
+        }
+      }
+      int n = Math.min(len, current.length - pos);
+      System.arraycopy(current.data, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+  }
+
+  /**
+   * A buffer read from the network
+   */
+  private static class Chunk {
+    static final Chunk EOF = new Chunk(new byte[0], 0);
+
+    final byte[] data;
+    final int length;
+
+    Chunk(byte[] data, int length) {
+      this.data = data;
+      this.length = length;
+    }
+  }
+
+  /**
+   * Consecutive inflated buffers of one entry, in order
+   */
+  private static class Piece {
+    static final Piece END = new Piece(null, null,
+        new ArrayList<ByteBuffer>(), false, false, -1);
+
+    final File file;
+    final String name;
+    final List<ByteBuffer> buffers;
+    final boolean first;
+    final boolean last;
+    /** The size of the whole entry, or -1 when not known yet */
+    final long size;
+    /** The number of bytes in this piece */
+    final long length;
+    /** On the last piece, the size and CRC of the whole entry */
+    long total;
+    long crc;
+
+    Piece(File file, String name, List<ByteBuffer> buffers, boolean first,
+        boolean last, long size) {
+      this.file = file;
+      this.name = name;
+      this.buffers = buffers;
+      this.first = first;
+      this.last = last;
+      this.size = size;
+      long n = 0;
+      for (ByteBuffer b : buffers) {
+        n += b.remaining();
+      }
+      this.length = n;
+    }
+  }
+
+}
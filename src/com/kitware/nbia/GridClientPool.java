@@ -0,0 +1,207 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import gov.nih.nci.cagrid.ncia.client.NCIACoreServiceClient;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of NCIACoreServiceClient stubs for one grid service URL. Building a
+ * stub parses the Axis configuration and sets up its transport, which costs
+ * more than many of the calls made through it, so stubs are kept and reused.
+ * An Axis stub is not safe for concurrent calls, so each one is lent to a
+ * single caller at a time.
+ *
+ * A stub that failed a call is assumed broken and not taken back. Stubs left
+ * idle for too long are dropped by {@link #evictIdle()}, and the most
+ * recently returned stub is lent first so that the others can age out.
+ *
+ * The pool also holds the AdaptiveLimiter that bounds how many calls are made
+ * to its URL at once, and the CircuitBreaker that stops them while the
+ * service is down; stubs, limit and breaker are independent.
+ */
+public class GridClientPool {
+
+  /**
+   * One pool per grid service URL
+   */
+  private static final ConcurrentMap<String, GridClientPool> pools =
+    new ConcurrentHashMap<String, GridClientPool>();
+
+  private final String url;
+  private final LinkedBlockingDeque<Idle> idle = new LinkedBlockingDeque<Idle>();
+  private final AdaptiveLimiter limiter = new AdaptiveLimiter(1, 32);
+  private final CircuitBreaker breaker = new CircuitBreaker(5, 30 * 1000);
+
+  private volatile int maxIdle = 8;
+  private volatile long idleMillis = 5 * 60 * 1000;
+
+  private final AtomicLong created = new AtomicLong();
+  private final AtomicLong reused = new AtomicLong();
+  private final AtomicLong discarded = new AtomicLong();
+  private final AtomicLong evicted = new AtomicLong();
+
+  private GridClientPool(String url) {
+    this.url = url;
+  }
+
+  /**
+   * @param url
+   *          - the grid service URL
+   * @return the pool shared by every client of that URL
+   */
+  public static GridClientPool forUrl(String url) {
+    GridClientPool pool = pools.get(url);
+    if (pool == null) {
+      GridClientPool fresh = new GridClientPool(url);
+      pool = pools.putIfAbsent(url, fresh);
+      if (pool == null) {
+        pool = fresh;
+      }
+    }
+    return pool;
+  }
+
+  /**
+   * @param maxIdle
+   *          - the number of idle stubs kept at most
+   */
+  public void setMaxIdle(int maxIdle) {
+    this.maxIdle = maxIdle;
+  }
+
+  /**
+   * @param idleMillis
+   *          - how long a stub may stay unused before it is dropped
+   */
+  public void setIdleMillis(long idleMillis) {
+    this.idleMillis = idleMillis;
+  }
+
+  /**
+   * @return the limiter of concurrent calls to this URL
+   */
+  public AdaptiveLimiter getLimiter() {
+    return limiter;
+  }
+
+  /**
+   * @return the circuit breaker of calls to this URL
+   */
+  public CircuitBreaker getBreaker() {
+    return breaker;
+  }
+
+  /**
+   * Lend a stub, building one if none is idle. Return it with
+   * {@link #release}.
+   *
+   * @return a stub for the caller's exclusive use
+   * @throws Exception
+   *           if a new stub can't be built
+   */
+  public NCIACoreServiceClient borrow() throws Exception {
+    long now = System.currentTimeMillis();
+    Idle i;
+    while ((i = idle.pollFirst()) != null) {
+      if (now - i.since < idleMillis) {
+        reused.incrementAndGet();
+        return i.client;
+      }
+      evicted.incrementAndGet();
+    }
+    created.incrementAndGet();
+    return new NCIACoreServiceClient(url);
+  }
+
+  /**
+   * Give a stub back.
+   *
+   * @param client
+   *          - a stub obtained from {@link #borrow}
+   * @param healthy
+   *          - false if a call through it failed, so that it is dropped
+   */
+  public void release(NCIACoreServiceClient client, boolean healthy) {
+    if (!healthy || idle.size() >= maxIdle) {
+      discarded.incrementAndGet();
+      return;
+    }
+    idle.offerFirst(new Idle(client, System.currentTimeMillis()));
+  }
+
+  /**
+   * Drop the stubs that have been idle for too long. The oldest ones are at
+   * the end of the queue.
+   */
+  public void evictIdle() {
+    long deadline = System.currentTimeMillis() - idleMillis;
+    for (Iterator<Idle> itr = idle.descendingIterator(); itr.hasNext();) {
+      Idle i = itr.next();
+      if (i.since >= deadline) {
+        break;
+      }
+      if (idle.removeLastOccurrence(i)) {
+        evicted.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Evict the idle stubs of every pool.
+   */
+  public static void evictAllIdle() {
+    for (GridClientPool pool : pools.values()) {
+      pool.evictIdle();
+    }
+  }
+
+  public long getCreated() {
+    return created.get();
+  }
+
+  public long getReused() {
+    return reused.get();
+  }
+
+  public long getDiscarded() {
+    return discarded.get();
+  }
+
+  public long getEvicted() {
+    return evicted.get();
+  }
+
+  public int getIdleCount() {
+    return idle.size();
+  }
+
+  private static class Idle {
+    final NCIACoreServiceClient client;
+    final long since;
+
+    Idle(NCIACoreServiceClient client, long since) {
+      this.client = client;
+      this.since = since;
+    }
+  }
+
+}
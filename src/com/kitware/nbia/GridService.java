@@ -0,0 +1,84 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import gov.nih.nci.cagrid.cqlquery.CQLQuery;
+
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * The calls NBIASimpleClient makes to an NBIA instance. The client wraps
+ * them with its limiter and circuit breaker; an implementation only talks to
+ * the service. CaGridService is the real one; another one, such as the fake
+ * grid of the benchmarks, is given to the client's constructor or named by
+ * the nbia.gridServiceFactory system property.
+ */
+public interface GridService {
+
+  /**
+   * Ask the service to prepare the transfer of a series.
+   *
+   * @param uuid
+   *          - the series uuid of the dataset requested
+   * @return the prepared transfer
+   * @throws Exception
+   */
+  Transfer retrieve(String uuid) throws Exception;
+
+  /**
+   * Run a CQL query. The call to the service is made before returning; the
+   * results are walked lazily.
+   *
+   * @param query
+   *          - the query
+   * @return an iterator over the series uids, or null if the service sent no
+   *         results
+   * @throws Exception
+   */
+  Iterator<String> query(CQLQuery query) throws Exception;
+
+  /**
+   * Makes the services of the clients, see
+   * NBIASimpleClient.FACTORY_PROPERTY. Implementations need a public no
+   * argument constructor.
+   */
+  interface Factory {
+
+    /**
+     * @param url
+     *          - the gridServiceUrl of the client
+     * @return the service the client calls
+     */
+    GridService forUrl(String url);
+  }
+
+  /**
+   * A series transfer prepared by the service
+   */
+  interface Transfer {
+
+    /**
+     * Start receiving the series zip. Closing the stream releases the
+     * transfer on the service.
+     *
+     * @return the zip as it arrives, or null if the service sent no data
+     * @throws Exception
+     */
+    InputStream open() throws Exception;
+  }
+
+}
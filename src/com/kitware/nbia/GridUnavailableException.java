@@ -0,0 +1,46 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+/**
+ * Thrown instead of calling the grid service while its circuit breaker is
+ * open.
+ */
+public class GridUnavailableException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long retryMillis;
+
+  /**
+   * @param url
+   *          - the grid service URL
+   * @param retryMillis
+   *          - how long until the service is tried again
+   */
+  public GridUnavailableException(String url, long retryMillis) {
+    super("The grid service at " + url + " is unavailable");
+    this.retryMillis = retryMillis;
+  }
+
+  /**
+   * @return how long until the service is tried again, in milliseconds
+   */
+  public long getRetryMillis() {
+    return retryMillis;
+  }
+
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.UnsupportedEncodingException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * A complete HTTP reply produced by one of the server's routes. Kept
+ * independent of the transport so that the worker pool and the NIO front end
+ * serve exactly the same bytes.
+ *
+ * The head is assembled from constant byte fragments and a date formatted at
+ * most once a second, straight into an array of its exact size or into a
+ * buffer the front end reuses. The body is never copied when the front end
+ * can send the two with a gather write.
+ */
+class HttpReply implements HttpConstants {
+
+  static final String EOL = "\r\n";
+
+  private static final byte[] CRLF = ascii(EOL);
+  private static final byte[] SERVER = ascii(EOL + "Server: "
+      + NBIAAdapterHTTPServer.serverName + EOL + "Date: ");
+  private static final byte[] CONTENT_TYPE = ascii(EOL + "Content-Type: ");
+  private static final byte[] CONTENT_LENGTH = ascii(EOL + "Content-length: ");
+  private static final byte[] CONNECTION = ascii("Connection: ");
+
+  /**
+   * The replies of okJson lately, by the identity of their body
+   */
+  private static final HttpReply[] SHARED = new HttpReply[256];
+
+  final int code;
+  final String reason;
+  final String contentType;
+  final byte[] body;
+
+  /**
+   * Whether the reply is handed to several requests, see okJson
+   */
+  private final boolean shared;
+
+  /**
+   * Extra header lines, each ending with EOL, or null
+   */
+  private String headers;
+
+  HttpReply(int code, String reason, String contentType, byte[] body) {
+    this(code, reason, contentType, body, false);
+  }
+
+  private HttpReply(int code, String reason, String contentType, byte[] body,
+      boolean shared) {
+    this.code = code;
+    this.reason = reason;
+    this.contentType = contentType;
+    this.body = body;
+    this.shared = shared;
+  }
+
+  /**
+   * @return a reply carrying a json document
+   */
+  static HttpReply json(int code, String reason, String json) {
+    return json(code, reason, utf8(json));
+  }
+
+  /**
+   * @return a reply carrying a json document already encoded, which is
+   *         shared and never copied
+   */
+  static HttpReply json(int code, String reason, byte[] json) {
+    return new HttpReply(code, reason, "application/json", json);
+  }
+
+  /**
+   * @return a 200 reply carrying a json document already encoded. The reply
+   *         is shared by the requests answered with the same array, e.g. the
+   *         cached status of a uuid somebody polls, so it takes no headers.
+   */
+  static HttpReply okJson(byte[] json) {
+    int slot = System.identityHashCode(json) & (SHARED.length - 1);
+    HttpReply r = SHARED[slot];
+    if (r == null || r.body != json) {
+      // Racing threads make the same reply, which is harmless
+      r = new HttpReply(HTTP_OK, "OK", "application/json", json, true);
+      SHARED[slot] = r;
+    }
+    return r;
+  }
+
+  /**
+   * @return a plain text reply
+   */
+  static HttpReply text(int code, String reason, String text) {
+    return new HttpReply(code, reason, "text/plain", utf8(text));
+  }
+
+  /**
+   * @return the reply for a resource we don't know how to handle
+   */
+  static HttpReply notFound() {
+    return text(HTTP_NOT_FOUND, "not found", "Not Found\n\n"
+        + "The requested resource was not found.\n");
+  }
+
+  /**
+   * Add a header to the reply.
+   *
+   * @param name
+   *          - the header name
+   * @param value
+   *          - its value
+   * @return this reply
+   */
+  HttpReply header(String name, String value) {
+    if (shared) {
+      throw new IllegalStateException("Shared replies take no headers");
+    }
+    String line = name + ": " + value + EOL;
+    headers = headers == null ? line : headers + line;
+    return this;
+  }
+
+  /**
+   * Serialize the status line, headers and body.
+   *
+   * @param version
+   *          - the protocol version to answer with, e.g. "HTTP/1.1"
+   * @param connection
+   *          - the value of the Connection header, or null to leave it out
+   * @return the bytes to put on the wire
+   */
+  byte[] encode(String version, String connection) {
+    return encode(version, connection, false);
+  }
+
+  /**
+   * Serialize the status line and headers, and the body unless the reply
+   * answers a HEAD request.
+   *
+   * @param version
+   *          - the protocol version to answer with, e.g. "HTTP/1.1"
+   * @param connection
+   *          - the value of the Connection header, or null to leave it out
+   * @param head
+   *          - whether to leave the body out, keeping its Content-length
+   * @return the bytes to put on the wire
+   */
+  byte[] encode(String version, String connection, boolean head) {
+    byte[] date = CachedDate.now();
+    int length = writeHead(null, 0, version, connection, date);
+    byte[] out = new byte[head ? length : length + body.length];
+    writeHead(out, 0, version, connection, date);
+    if (!head) {
+      System.arraycopy(body, 0, out, length, body.length);
+    }
+    return out;
+  }
+
+  /**
+   * Serialize the reply into an array the front end reuses, if it fits.
+   *
+   * @param out
+   *          - where to write
+   * @param from
+   *          - where to start
+   * @return the end of the reply in out, or -1 if it doesn't fit
+   */
+  int encode(byte[] out, int from, String version, String connection,
+      boolean head) {
+    byte[] date = CachedDate.now();
+    int length = writeHead(null, 0, version, connection, date);
+    if (length + (head ? 0 : body.length) > out.length - from) {
+      return -1;
+    }
+    int at = writeHead(out, from, version, connection, date);
+    if (!head) {
+      System.arraycopy(body, 0, out, at, body.length);
+      at += body.length;
+    }
+    return at;
+  }
+
+  /**
+   * Write the status line and headers, or only measure them.
+   *
+   * @param out
+   *          - where to write them, or null to measure them
+   * @param from
+   *          - where to start
+   * @return the end of the head
+   */
+  private int writeHead(byte[] out, int from, String version,
+      String connection, byte[] date) {
+    int at = put(out, from, version);
+    at = put(out, at, ' ');
+    at = put(out, at, code);
+    at = put(out, at, ' ');
+    at = put(out, at, reason);
+    at = put(out, at, SERVER);
+    at = put(out, at, date);
+    if (contentType != null) {
+      at = put(out, at, CONTENT_TYPE);
+      at = put(out, at, contentType);
+    }
+    at = put(out, at, CONTENT_LENGTH);
+    at = put(out, at, body.length);
+    at = put(out, at, CRLF);
+    if (headers != null) {
+      at = put(out, at, headers);
+    }
+    if (connection != null) {
+      at = put(out, at, CONNECTION);
+      at = put(out, at, connection);
+      at = put(out, at, CRLF);
+    }
+    return put(out, at, CRLF);
+  }
+
+  private static int put(byte[] out, int at, byte[] fragment) {
+    if (out != null) {
+      System.arraycopy(fragment, 0, out, at, fragment.length);
+    }
+    return at + fragment.length;
+  }
+
+  /**
+   * Header values are ASCII, so chars go as they are.
+   */
+  private static int put(byte[] out, int at, String s) {
+    if (out != null) {
+      for (int i = 0; i < s.length(); i++) {
+        out[at + i] = (byte) s.charAt(i);
+      }
+    }
+    return at + s.length();
+  }
+
+  private static int put(byte[] out, int at, char c) {
+    if (out != null) {
+      out[at] = (byte) c;
+    }
+    return at + 1;
+  }
+
+  private static int put(byte[] out, int at, int n) {
+    int digits = 1;
+    for (int rest = n / 10; rest > 0; rest /= 10) {
+      digits++;
+    }
+    if (out != null) {
+      for (int i = at + digits - 1; i >= at; i--) {
+        out[i] = (byte) ('0' + n % 10);
+        n /= 10;
+      }
+    }
+    return at + digits;
+  }
+
+  static byte[] utf8(String s) {
+    try {
+      return s.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static byte[] ascii(String s) {
+    byte[] b = new byte[s.length()];
+    put(b, 0, s);
+    return b;
+  }
+
+  /**
+   * The date of the Date header, an IMF-fixdate as RFC 7231 requires,
+   * formatted once a second at most
+   */
+  private static class CachedDate {
+    /** Guarded by itself, SimpleDateFormat not being thread safe */
+    private static final DateFormat IMF_FIXDATE = new SimpleDateFormat(
+        "EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+    static {
+      IMF_FIXDATE.setTimeZone(TimeZone.getTimeZone("GMT"));
+    }
+
+    private static volatile CachedDate current = new CachedDate(-1);
+
+    final long second;
+    final byte[] bytes;
+
+    private CachedDate(long second) {
+      this.second = second;
+      synchronized (IMF_FIXDATE) {
+        this.bytes = ascii(IMF_FIXDATE.format(new Date(second * 1000)));
+      }
+    }
+
+    static byte[] now() {
+      long second = System.currentTimeMillis() / 1000;
+      CachedDate d = current;
+      if (d.second != second) {
+        // Racing threads format the same second, which is harmless
+        d = new CachedDate(second);
+        current = d;
+      }
+      return d.bytes;
+    }
+  }
+
+}
@@ -0,0 +1,468 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+/**
+ * An incremental parser of request heads, working in place on the buffer the
+ * front end reads into. It only records offsets: the method, the path and
+ * query of the target, the version, and the Connection and Accept headers,
+ * so parsing allocates nothing. Feed it the buffer each time more bytes
+ * arrive; it resumes where it stopped. One instance is reused for every
+ * request of a connection.
+ *
+ * Strings are only made when a route asks for them, with {@link #segment}
+ * and friends.
+ */
+final class HttpRequest {
+
+  /** parse() result: the head is not complete yet */
+  static final int NEED_MORE = -1;
+  /** parse() result: the head is malformed */
+  static final int BAD = -2;
+
+  static final int GET = 1;
+  static final int HEAD = 2;
+  static final int OTHER = 3;
+
+  static final int CONNECTION_NONE = 0;
+  static final int CONNECTION_CLOSE = 1;
+  static final int CONNECTION_KEEP_ALIVE = 2;
+
+  /** The number of path segments recorded */
+  static final int SEGMENTS = 4;
+
+  private static final byte[] GET_BYTES = bytes("GET");
+  private static final byte[] HEAD_BYTES = bytes("HEAD");
+  private static final byte[] HTTP_1_1 = bytes("HTTP/1.1");
+  private static final byte[] HTTP_SLASH = bytes("HTTP/");
+  private static final byte[] CONNECTION = bytes("connection");
+  private static final byte[] ACCEPT = bytes("accept");
+  private static final byte[] CLOSE = bytes("close");
+  private static final byte[] KEEP_ALIVE = bytes("keep-alive");
+
+  /**
+   * The Strings made lately by internedSegment, by hash. Threads race on the
+   * slots harmlessly: a String is safe to share, and a lost one is made
+   * again.
+   */
+  private static final String[] INTERNED = new String[1024];
+
+  private byte[] buf;
+
+  // Where the next parse() resumes
+  private int pos;
+  private int lineStart;
+  private boolean inHeaders;
+
+  int method;
+  int targetStart, targetEnd;
+  /** End of the path; the query, if any, runs from pathEnd + 1 to targetEnd */
+  int pathEnd;
+  boolean http11;
+  int connection;
+  int acceptStart = -1, acceptEnd = -1;
+
+  /** Offsets of the path segments, e.g. "status" and the uuid */
+  final int[] segStart = new int[SEGMENTS];
+  final int[] segEnd = new int[SEGMENTS];
+  int segments;
+
+  /**
+   * Get ready for a request starting at the given offset.
+   *
+   * @param start
+   *          - where the next request head starts in the buffer
+   */
+  void reset(int start) {
+    pos = start;
+    lineStart = start;
+    inHeaders = false;
+    method = 0;
+    http11 = false;
+    connection = CONNECTION_NONE;
+    acceptStart = -1;
+    acceptEnd = -1;
+    segments = 0;
+  }
+
+  /**
+   * Follow the bytes of a partial head moved towards the start of the
+   * buffer.
+   *
+   * @param delta
+   *          - how far they moved
+   */
+  void rebase(int delta) {
+    pos -= delta;
+    lineStart -= delta;
+    targetStart -= delta;
+    targetEnd -= delta;
+    pathEnd -= delta;
+    if (acceptStart >= 0) {
+      acceptStart -= delta;
+      acceptEnd -= delta;
+    }
+    for (int i = 0; i < segments; i++) {
+      segStart[i] -= delta;
+      segEnd[i] -= delta;
+    }
+  }
+
+  /**
+   * Parse the lines of the head that arrived since the last call.
+   *
+   * @param buf
+   *          - the buffer the head is read into
+   * @param end
+   *          - the end of the bytes read so far
+   * @return the offset just past the blank line ending the head, NEED_MORE
+   *         or BAD
+   */
+  int parse(byte[] buf, int end) {
+    this.buf = buf;
+    for (; pos < end; pos++) {
+      if (buf[pos] != '\n') {
+        continue;
+      }
+      int lineEnd = pos > lineStart && buf[pos - 1] == '\r' ? pos - 1 : pos;
+      int next = pos + 1;
+      if (!inHeaders) {
+        if (lineEnd == lineStart) {
+          // Blank lines before a request are tolerated
+          lineStart = next;
+          continue;
+        }
+        if (!requestLine(lineStart, lineEnd)) {
+          return BAD;
+        }
+        inHeaders = true;
+      } else if (lineEnd == lineStart) {
+        pos = next;
+        return next;
+      } else {
+        header(lineStart, lineEnd);
+      }
+      lineStart = next;
+    }
+    return NEED_MORE;
+  }
+
+  private boolean requestLine(int start, int end) {
+    int sp1 = indexOf(buf, start, end, (byte) ' ');
+    int sp2 = sp1 < 0 ? -1 : indexOf(buf, sp1 + 1, end, (byte) ' ');
+    if (sp1 < 0 || sp2 < 0 || sp2 == sp1 + 1) {
+      return false;
+    }
+    if (equals(buf, start, sp1, GET_BYTES)) {
+      method = GET;
+    } else if (equals(buf, start, sp1, HEAD_BYTES)) {
+      method = HEAD;
+    } else {
+      method = OTHER;
+    }
+    if (!startsWith(buf, sp2 + 1, end, HTTP_SLASH)) {
+      return false;
+    }
+    http11 = equals(buf, sp2 + 1, end, HTTP_1_1);
+    targetStart = sp1 + 1;
+    targetEnd = sp2;
+    int q = indexOf(buf, targetStart, targetEnd, (byte) '?');
+    pathEnd = q < 0 ? targetEnd : q;
+    splitPath();
+    return true;
+  }
+
+  /**
+   * Record the segments of the path the way split("/") finds them, leading
+   * empty one included.
+   */
+  private void splitPath() {
+    segments = 0;
+    int s = targetStart;
+    while (segments < SEGMENTS) {
+      int slash = indexOf(buf, s, pathEnd, (byte) '/');
+      int e = slash < 0 ? pathEnd : slash;
+      segStart[segments] = s;
+      segEnd[segments] = e;
+      segments++;
+      if (slash < 0) {
+        break;
+      }
+      s = slash + 1;
+    }
+    // Trailing empty segments don't count, as with split
+    while (segments > 1
+        && segEnd[segments - 1] == segStart[segments - 1]) {
+      segments--;
+    }
+  }
+
+  private void header(int start, int end) {
+    int colon = indexOf(buf, start, end, (byte) ':');
+    if (colon < 0) {
+      return;
+    }
+    int vs = colon + 1;
+    int ve = end;
+    while (vs < ve && (buf[vs] == ' ' || buf[vs] == '\t')) {
+      vs++;
+    }
+    while (ve > vs && (buf[ve - 1] == ' ' || buf[ve - 1] == '\t')) {
+      ve--;
+    }
+    if (equalsIgnoreCase(buf, start, colon, CONNECTION)) {
+      if (equalsIgnoreCase(buf, vs, ve, CLOSE)) {
+        connection = CONNECTION_CLOSE;
+      } else if (equalsIgnoreCase(buf, vs, ve, KEEP_ALIVE)) {
+        connection = CONNECTION_KEEP_ALIVE;
+      }
+    } else if (equalsIgnoreCase(buf, start, colon, ACCEPT)) {
+      acceptStart = vs;
+      acceptEnd = ve;
+    }
+  }
+
+  /**
+   * @return whether the connection stays open after this request
+   */
+  boolean keepAlive() {
+    return http11 ? connection != CONNECTION_CLOSE
+        : connection == CONNECTION_KEEP_ALIVE;
+  }
+
+  /**
+   * @param i
+   *          - the index of a path segment, 1 for the first after the root
+   * @param name
+   *          - the bytes to compare it with
+   * @return whether the segment is there and equal to name
+   */
+  boolean segmentIs(int i, byte[] name) {
+    return i < segments && equals(buf, segStart[i], segEnd[i], name);
+  }
+
+  /**
+   * @return the path segment as a String, or null if there is none
+   */
+  String segment(int i) {
+    return i < segments ? string(segStart[i], segEnd[i]) : null;
+  }
+
+  /**
+   * The same as segment, but a segment seen lately, e.g. the uuid a client
+   * keeps polling, comes back as the same String without making a new one.
+   *
+   * @return the path segment as a String, or null if there is none
+   */
+  String internedSegment(int i) {
+    if (i >= segments) {
+      return null;
+    }
+    int start = segStart[i];
+    int end = segEnd[i];
+    // The hash String.hashCode() gives the chars string() makes
+    int h = 0;
+    for (int j = start; j < end; j++) {
+      h = 31 * h + (buf[j] & 0xff);
+    }
+    int slot = (h ^ (h >>> 16)) & (INTERNED.length - 1);
+    String s = INTERNED[slot];
+    if (s == null || s.hashCode() != h || !sameChars(start, end, s)) {
+      s = string(start, end);
+      INTERNED[slot] = s;
+    }
+    return s;
+  }
+
+  /**
+   * @return the whole request target, e.g. for the log
+   */
+  String target() {
+    return string(targetStart, targetEnd);
+  }
+
+  /**
+   * @return whether the target has a query string
+   */
+  boolean hasQuery() {
+    return pathEnd < targetEnd;
+  }
+
+  /**
+   * @return the query string without the '?', or "" if there is none
+   */
+  String query() {
+    return pathEnd < targetEnd ? string(pathEnd + 1, targetEnd) : "";
+  }
+
+  /**
+   * @param type
+   *          - a media type, e.g. "application/json"
+   * @return whether the Accept header allows it, either named or through a
+   *         wildcard. A missing header allows everything.
+   */
+  boolean accepts(String type) {
+    return acceptStart < 0 || accepted(type, false);
+  }
+
+  /**
+   * @param type
+   *          - a media type, e.g. "multipart/mixed"
+   * @return whether the Accept header names the type itself
+   */
+  boolean asksFor(String type) {
+    return acceptStart >= 0 && accepted(type, true);
+  }
+
+  private boolean accepted(String type, boolean exact) {
+    int slash = type.indexOf('/');
+    int s = acceptStart;
+    while (s < acceptEnd) {
+      int comma = indexOf(buf, s, acceptEnd, (byte) ',');
+      int e = comma < 0 ? acceptEnd : comma;
+      int semi = indexOf(buf, s, e, (byte) ';');
+      int rs = s;
+      int re = semi < 0 ? e : semi;
+      while (rs < re && buf[rs] == ' ') {
+        rs++;
+      }
+      while (re > rs && buf[re - 1] == ' ') {
+        re--;
+      }
+      if (!refused(semi, e)) {
+        if (regionIs(rs, re, type, 0, type.length())) {
+          return true;
+        }
+        if (!exact
+            && (regionIs(rs, re, "*/*", 0, 3) || (re - rs == slash + 2
+                && buf[re - 1] == '*' && regionIs(rs, re - 1, type, 0,
+                slash + 1)))) {
+          return true;
+        }
+      }
+      s = e + 1;
+    }
+    return false;
+  }
+
+  /**
+   * @return whether the parameters of a media range carry q=0
+   */
+  private boolean refused(int semi, int end) {
+    if (semi < 0) {
+      return false;
+    }
+    for (int i = semi; i + 1 < end; i++) {
+      if ((buf[i] == 'q' || buf[i] == 'Q') && buf[i + 1] == '=') {
+        for (int j = i + 2; j < end && buf[j] != ';'; j++) {
+          if (buf[j] >= '1' && buf[j] <= '9') {
+            return false;
+          }
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean regionIs(int start, int end, String s, int from, int to) {
+    if (end - start != to - from) {
+      return false;
+    }
+    for (int i = 0; i < to - from; i++) {
+      if (Character.toLowerCase((char) buf[start + i]) != Character
+          .toLowerCase(s.charAt(from + i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean sameChars(int start, int end, String s) {
+    if (end - start != s.length()) {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      if ((char) (buf[start + i] & 0xff) != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String string(int start, int end) {
+    char[] c = new char[end - start];
+    for (int i = 0; i < c.length; i++) {
+      c[i] = (char) (buf[start + i] & 0xff);
+    }
+    return new String(c);
+  }
+
+  static int indexOf(byte[] buf, int start, int end, byte b) {
+    for (int i = start; i < end; i++) {
+      if (buf[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  static boolean equals(byte[] buf, int start, int end, byte[] s) {
+    if (end - start != s.length) {
+      return false;
+    }
+    for (int i = 0; i < s.length; i++) {
+      if (buf[start + i] != s[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean startsWith(byte[] buf, int start, int end, byte[] s) {
+    return end - start >= s.length && equals(buf, start, start + s.length, s);
+  }
+
+  /**
+   * @param lower
+   *          - the lower case bytes to compare with
+   */
+  private static boolean equalsIgnoreCase(byte[] buf, int start, int end,
+      byte[] lower) {
+    if (end - start != lower.length) {
+      return false;
+    }
+    for (int i = 0; i < lower.length; i++) {
+      byte b = buf[start + i];
+      if (b >= 'A' && b <= 'Z') {
+        b += 'a' - 'A';
+      }
+      if (b != lower[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static byte[] bytes(String s) {
+    byte[] b = new byte[s.length()];
+    for (int i = 0; i < b.length; i++) {
+      b[i] = (byte) s.charAt(i);
+    }
+    return b;
+  }
+
+}
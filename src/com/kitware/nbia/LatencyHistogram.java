@@ -0,0 +1,113 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations into fixed buckets, the way a Prometheus histogram
+ * exposes them. Recording is one atomic increment and one atomic add, so it
+ * never takes a lock; a reader may see a bucket and the sum a few samples
+ * apart, which the scraper tolerates.
+ */
+class LatencyHistogram {
+
+  /**
+   * Upper bounds of the buckets of requests in seconds, from 100 us to 10 s.
+   * Anything slower lands in the +Inf bucket.
+   */
+  static final String[] BOUNDS = { "0.0001", "0.00025", "0.0005", "0.001",
+      "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1",
+      "2.5", "5", "10" };
+
+  /**
+   * Upper bounds of the buckets of downloads in seconds, from 1 s to an hour
+   */
+  static final String[] DOWNLOAD_BOUNDS = { "1", "2.5", "5", "10", "30", "60",
+      "120", "300", "600", "1200", "1800", "3600" };
+
+  private final String[] bounds;
+  private final long[] boundNanos;
+
+  /**
+   * Per bucket counts, not cumulative; the last one is +Inf
+   */
+  private final AtomicLongArray buckets;
+  private final AtomicLong sumNanos = new AtomicLong();
+
+  /**
+   * A histogram of request durations, see BOUNDS
+   */
+  LatencyHistogram() {
+    this(BOUNDS);
+  }
+
+  /**
+   * @param bounds
+   *          - the upper bounds of the buckets in seconds, ascending
+   */
+  LatencyHistogram(String[] bounds) {
+    this.bounds = bounds;
+    this.boundNanos = new long[bounds.length];
+    for (int i = 0; i < bounds.length; i++) {
+      boundNanos[i] = (long) (Double.parseDouble(bounds[i]) * 1e9);
+    }
+    this.buckets = new AtomicLongArray(bounds.length + 1);
+  }
+
+  /**
+   * @param nanos
+   *          - the duration to count
+   */
+  void record(long nanos) {
+    int i = 0;
+    while (i < boundNanos.length && nanos > boundNanos[i]) {
+      i++;
+    }
+    buckets.incrementAndGet(i);
+    sumNanos.addAndGet(nanos);
+  }
+
+  /**
+   * Append the histogram in the Prometheus text format.
+   *
+   * @param out
+   *          - where to write
+   * @param name
+   *          - the metric name, without the _bucket suffix
+   * @param labels
+   *          - labels to put in front of le, e.g. route="status", or ""
+   */
+  void render(StringBuilder out, String name, String labels) {
+    String sep = labels.length() == 0 ? "" : labels + ",";
+    long cumulative = 0;
+    for (int i = 0; i < bounds.length; i++) {
+      cumulative += buckets.get(i);
+      out.append(name).append("_bucket{").append(sep).append("le=\"")
+          .append(bounds[i]).append("\"} ").append(cumulative).append('\n');
+    }
+    cumulative += buckets.get(bounds.length);
+    out.append(name).append("_bucket{").append(sep).append("le=\"+Inf\"} ")
+        .append(cumulative).append('\n');
+    String braces = labels.length() == 0 ? "" : "{" + labels + "}";
+    out.append(name).append("_sum").append(braces).append(' ')
+        .append(sumNanos.get() / 1e9).append('\n');
+    out.append(name).append("_count").append(braces).append(' ')
+        .append(cumulative).append('\n');
+  }
+
+}
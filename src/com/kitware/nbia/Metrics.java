@@ -0,0 +1,272 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The server's counters, served by /metrics in the Prometheus text format.
+ * Everything recorded on a request or transfer path is an atomic counter or
+ * a LatencyHistogram; the gauges (queue depth, cache size...) are read from
+ * their owners only when the metrics are scraped.
+ */
+final class Metrics {
+
+  /**
+   * The routes requests are counted under, indexed by the Router constants
+   */
+  private static final String[] ROUTES = Router.NAMES;
+
+  private static final LatencyHistogram[] latency =
+    new LatencyHistogram[ROUTES.length];
+  static {
+    for (int i = 0; i < ROUTES.length; i++) {
+      latency[i] = new LatencyHistogram();
+    }
+  }
+
+  /**
+   * The outcomes downloads are timed under
+   */
+  static final String[] OUTCOMES = { "ok", "failed" };
+
+  /** From the fetch that queued a download until it is done, by outcome */
+  private static final LatencyHistogram[] downloadTotal =
+    new LatencyHistogram[OUTCOMES.length];
+  /** From the start of a download until it is done, retries included */
+  private static final LatencyHistogram[] downloadTransfer =
+    new LatencyHistogram[OUTCOMES.length];
+  static {
+    for (int i = 0; i < OUTCOMES.length; i++) {
+      downloadTotal[i] = new LatencyHistogram(
+          LatencyHistogram.DOWNLOAD_BOUNDS);
+      downloadTransfer[i] = new LatencyHistogram(
+          LatencyHistogram.DOWNLOAD_BOUNDS);
+    }
+  }
+
+  /**
+   * Request counts per route, indexed by status code - 100
+   */
+  private static final AtomicLongArray[] requests =
+    new AtomicLongArray[ROUTES.length];
+  static {
+    for (int i = 0; i < ROUTES.length; i++) {
+      requests[i] = new AtomicLongArray(500);
+    }
+  }
+
+  // Added to by every transfer thread at once, hence adders over one word
+  /** Compressed bytes received from the grid by downloads */
+  static final LongAdder bytesReceived = new LongAdder();
+  /** Bytes extracted to disk by downloads */
+  static final LongAdder bytesWritten = new LongAdder();
+  /** Bytes relayed to clients by /stream */
+  static final LongAdder bytesStreamed = new LongAdder();
+  /**
+   * The outcomes grid calls are counted under: answered, answered with a
+   * fault about the request itself, failed with a transient fault
+   */
+  static final String[] GRID_OUTCOMES = { "ok", "fault", "transient" };
+  static final int GRID_OK = 0;
+  static final int GRID_FAULT = 1;
+  static final int GRID_TRANSIENT = 2;
+
+  private static final AtomicLongArray gridCalls = new AtomicLongArray(
+      GRID_OUTCOMES.length);
+
+  /** Downloads tried again after a transient fault */
+  static final AtomicLong retries = new AtomicLong();
+  /** Connections being served by a worker thread */
+  static final AtomicInteger workersBusy = new AtomicInteger();
+
+  private Metrics() {
+  }
+
+  /**
+   * Count a request once its reply is ready.
+   *
+   * @param route
+   *          - its route, one of the Router constants
+   * @param code
+   *          - the status code of the reply
+   * @param nanos
+   *          - how long building the reply took
+   */
+  static void request(int route, int code, long nanos) {
+    latency[route].record(nanos);
+    if (code >= 100 && code < 600) {
+      requests[route].incrementAndGet(code - 100);
+    }
+  }
+
+  /**
+   * Count a call that reached the grid.
+   *
+   * @param outcome
+   *          - GRID_OK, GRID_FAULT or GRID_TRANSIENT
+   */
+  static void gridCall(int outcome) {
+    gridCalls.incrementAndGet(outcome);
+  }
+
+  /**
+   * Count a finished download.
+   *
+   * @param ok
+   *          - whether it succeeded
+   * @param queuedNanos
+   *          - the time from its fetch until it finished
+   * @param transferNanos
+   *          - the time from its start until it finished
+   */
+  static void download(boolean ok, long queuedNanos, long transferNanos) {
+    int outcome = ok ? 0 : 1;
+    downloadTotal[outcome].record(queuedNanos);
+    downloadTransfer[outcome].record(transferNanos);
+  }
+
+  /**
+   * @return every metric in the Prometheus text exposition format
+   */
+  static String render() {
+    StringBuilder out = new StringBuilder(8192);
+
+    type(out, "nbia_http_requests_total", "counter",
+        "Requests served, by route and status code.");
+    for (int i = 0; i < ROUTES.length; i++) {
+      for (int c = 0; c < requests[i].length(); c++) {
+        long n = requests[i].get(c);
+        if (n > 0) {
+          out.append("nbia_http_requests_total{route=\"").append(ROUTES[i])
+              .append("\",code=\"").append(c + 100).append("\"} ").append(n)
+              .append('\n');
+        }
+      }
+    }
+    type(out, "nbia_http_request_duration_seconds", "histogram",
+        "Time to build a reply, by route. Streams are timed until they start.");
+    for (int i = 0; i < ROUTES.length; i++) {
+      latency[i].render(out, "nbia_http_request_duration_seconds", "route=\""
+          + ROUTES[i] + "\"");
+    }
+
+    gauge(out, "nbia_workers", "Worker threads of the pool mode.",
+        NBIAAdapterHTTPServer.workers);
+    gauge(out, "nbia_workers_busy", "Connections being served by a worker.",
+        workersBusy.get());
+    gauge(out, "nbia_streams_active", "Series being relayed by /stream.",
+        SeriesStream.getActiveCount());
+    gauge(out, "nbia_event_streams_active", "Clients following /events.",
+        StatusEvents.getActiveCount());
+    gauge(out, "nbia_status_watches", "Long polls and event streams waiting "
+        + "on a status.", NBIAAdapterHTTPServer.uuidStatus.getWatcherCount());
+
+    DownloadEngine engine = NBIAAdapterHTTPServer.downloadEngine;
+    gauge(out, "nbia_downloads_active", "Downloads transferring.",
+        engine.getActiveCount());
+    gauge(out, "nbia_downloads_queued", "Downloads waiting for a slot.",
+        engine.getQueueDepth());
+    gauge(out, "nbia_downloads_in_flight", "Series queued or downloading.",
+        engine.getInFlightCount());
+    counter(out, "nbia_download_retries_total",
+        "Downloads tried again after a transient fault.", retries.get());
+    type(out, "nbia_download_duration_seconds", "histogram",
+        "Time from the fetch that queued a download until it finished, by "
+            + "outcome.");
+    for (int i = 0; i < OUTCOMES.length; i++) {
+      downloadTotal[i].render(out, "nbia_download_duration_seconds",
+          "outcome=\"" + OUTCOMES[i] + "\"");
+    }
+    type(out, "nbia_download_transfer_seconds", "histogram",
+        "Time from the start of a download until it finished, retries "
+            + "included, by outcome.");
+    for (int i = 0; i < OUTCOMES.length; i++) {
+      downloadTransfer[i].render(out, "nbia_download_transfer_seconds",
+          "outcome=\"" + OUTCOMES[i] + "\"");
+    }
+
+    counter(out, "nbia_received_bytes_total",
+        "Compressed bytes received from the grid by downloads.",
+        bytesReceived.sum());
+    counter(out, "nbia_written_bytes_total",
+        "Bytes extracted to disk by downloads.", bytesWritten.sum());
+    counter(out, "nbia_streamed_bytes_total",
+        "Bytes relayed to clients by /stream.", bytesStreamed.sum());
+
+    SeriesCache cache = NBIAAdapterHTTPServer.seriesCache;
+    counter(out, "nbia_cache_hits_total", "Series served from the cache.",
+        cache.getHits());
+    counter(out, "nbia_cache_misses_total", "Series not found in the cache.",
+        cache.getMisses());
+    gauge(out, "nbia_cache_bytes", "Bytes held by the series cache.",
+        cache.getBytes());
+
+    GridClientPool pool = NBIAAdapterHTTPServer.setupClient().getPool();
+    AdaptiveLimiter limiter = pool.getLimiter();
+    type(out, "nbia_grid_calls_total", "counter",
+        "Calls made to the grid service, by outcome: ok, fault about the "
+            + "request itself, transient fault of the grid.");
+    for (int i = 0; i < GRID_OUTCOMES.length; i++) {
+      out.append("nbia_grid_calls_total{outcome=\"").append(GRID_OUTCOMES[i])
+          .append("\"} ").append(gridCalls.get(i)).append('\n');
+    }
+    gauge(out, "nbia_grid_concurrency_limit",
+        "Concurrent grid calls currently allowed.", limiter.getLimit());
+    gauge(out, "nbia_grid_calls_waiting", "Grid calls waiting for a slot.",
+        limiter.getWaiting());
+    CircuitBreaker breaker = pool.getBreaker();
+    type(out, "nbia_grid_breaker_state", "gauge",
+        "1 for the state the circuit breaker is in: closed, open (calls "
+            + "refused) or half-open (one probe call let through).");
+    String state = breaker.getState();
+    for (String s : new String[] { CircuitBreaker.CLOSED,
+        CircuitBreaker.OPEN, CircuitBreaker.HALF_OPEN }) {
+      out.append("nbia_grid_breaker_state{state=\"").append(s)
+          .append("\"} ").append(s == state ? 1 : 0).append('\n');
+    }
+    counter(out, "nbia_grid_breaker_trips_total",
+        "Times the circuit breaker opened.", breaker.getTrips());
+    counter(out, "nbia_grid_breaker_rejected_total",
+        "Grid calls refused by the circuit breaker.", breaker.getRejected());
+    counter(out, "nbia_log_dropped_total",
+        "Log records dropped because the log writer fell behind.",
+        NBIAAdapterHTTPServer.log.getDropped());
+    return out.toString();
+  }
+
+  private static void type(StringBuilder out, String name, String type,
+      String help) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void gauge(StringBuilder out, String name, String help,
+      long value) {
+    type(out, name, "gauge", help);
+    out.append(name).append(' ').append(value).append('\n');
+  }
+
+  private static void counter(StringBuilder out, String name, String help,
+      long value) {
+    type(out, name, "counter", help);
+    out.append(name).append(' ').append(value).append('\n');
+  }
+
+}
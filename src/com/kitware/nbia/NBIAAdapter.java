@@ -15,9 +15,11 @@
  */
 package com.kitware.nbia;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.InputStreamReader;
 
 import org.apache.axis.AxisFault;
 
@@ -40,6 +42,9 @@ public class NBIAAdapter {
   private static String uuid;
   private static String query;
   private static String output;
+  private static String batch;
+  private static Boolean fetchResults;
+  private static Integer jobs;
   
   private static Configurator configurator;
   private static String gridServiceUrl;
@@ -56,9 +61,16 @@ public class NBIAAdapter {
     setupParser(args);
     
     loadConfiguration();
+    
+    int failures = 0;
 
+    // Fetch a list of series, or the results of the query
+    if (batch != "" || (query != "" && fetchResults)) {
+      verbosePrint("Fetching in batch mode");
+      failures = performBatch();
+    }
     // Run a query based on the CQL file provided
-    if (query != "") {
+    else if (query != "") {
       verbosePrint("Running Query: " + query);
       performQuery();
     }
@@ -74,6 +86,10 @@ public class NBIAAdapter {
       verbosePrint("Saving Config: " + saveConfig);
       configurator.save(saveConfig);
     }
+    
+    if (failures > 0) {
+      System.exit(1);
+    }
   }
 
   /**
@@ -103,6 +119,15 @@ public class NBIAAdapter {
     CmdLineParser.Option outputOption = parser.addHelp(
         parser.addStringOption('o', "output"),
         "Specify where to place the output.");
+    CmdLineParser.Option batchOption = parser.addHelp(
+        parser.addStringOption('b', "batch"),
+        "Fetch every series UUID listed in a file, one per line (- for stdin).");
+    CmdLineParser.Option fetchOption = parser.addHelp(
+        parser.addBooleanOption('f', "fetch"),
+        "Fetch the series matched by --query instead of printing them.");
+    CmdLineParser.Option jobsOption = parser.addHelp(
+        parser.addIntegerOption('j', "jobs"),
+        "The number of series a batch downloads at the same time.");
 
     try {
       parser.parse(args);
@@ -119,6 +144,9 @@ public class NBIAAdapter {
     uuid = (String) parser.getOptionValue(uuidOption, "");
     query = (String) parser.getOptionValue(queryOption, "");
     output = (String) parser.getOptionValue(outputOption, "");
+    batch = (String) parser.getOptionValue(batchOption, "");
+    fetchResults = (Boolean) parser.getOptionValue(fetchOption, Boolean.FALSE);
+    jobs = (Integer) parser.getOptionValue(jobsOption, null);
     
     // Print usage information
     if (help) {
@@ -136,13 +164,18 @@ public class NBIAAdapter {
         "gridServiceUrl");
     clientDownloadLocation = configurator.getProps().getProperty(
         "clientDownloadLocation");
-    nbiaClient = new NBIASimpleClient(gridServiceUrl, clientDownloadLocation);
 
     // Load the configuration file into the Configurator
     if (loadConfig != "") {
       verbosePrint("Loading Config: " + loadConfig);
       configurator.load(loadConfig);
     }
+
+    nbiaClient = new NBIASimpleClient(gridServiceUrl, clientDownloadLocation);
+    nbiaClient.setWriters(Integer.parseInt(configurator.getProps().getProperty(
+        "fetchWriters")));
+    nbiaClient.setPreallocate(Boolean.parseBoolean(
+        configurator.getProps().getProperty("fetchPreallocate")));
     
   }
   
@@ -166,27 +199,88 @@ public class NBIAAdapter {
   }
   
   /**
-   * 
+   * Fetch the series of the batch file and/or the query results, several at
+   * a time, each into its own directory under the output.
+   * @return the number of series that could not be fetched, plus one if the
+   *         batch file could not be read or the query failed, since some
+   *         series were then never submitted
    */
-  private static void performQuery()
+  private static int performBatch()
   {
-    List<String> results = new ArrayList<String>();
+    if (jobs == null) {
+      jobs = Integer.parseInt(configurator.getProps().getProperty(
+          "batchDownloads"));
+    }
+    File base = new File(output == "" ? nbiaClient.defaultDownloadLocation()
+        : output);
+    final BatchFetcher fetcher = new BatchFetcher(nbiaClient, base, jobs,
+        System.out, verbose);
+    int aborted = 0;
     try {
-      results.addAll(nbiaClient.query(query));
+      if (batch != "") {
+        BufferedReader reader = new BufferedReader(batch.equals("-")
+            ? new InputStreamReader(System.in) : new FileReader(batch));
+        String line;
+        while ((line = reader.readLine()) != null) {
+          line = line.trim();
+          if (line.length() > 0 && !line.startsWith("#")) {
+            fetcher.submit(line);
+          }
+        }
+        reader.close();
+      }
+      if (query != "" && fetchResults) {
+        nbiaClient.query(nbiaClient.readQuery(query), new QueryCallback() {
+          public void series(String uuid) throws Exception {
+            fetcher.submit(uuid);
+          }
+        });
+      }
+    } catch (FileNotFoundException e) {
+      System.out.println("Batch file not found: " + batch);
+      aborted = 1;
     } catch (AxisFault e) {
       System.out.println("Internal Server Error at NBIA Site.");
+      aborted = 1;
       if( verbose ) {
         e.printStackTrace();
       }
     } catch (Exception e) {
       System.out.println("Unknown Server Error");
+      aborted = 1;
       if( verbose ) {
         e.printStackTrace();
       }   
     }
-    for( Iterator<String> itr = results.iterator(); itr.hasNext(); )
-    {
-      System.out.print( itr.next() + "\n" );
+    try {
+      return fetcher.finish() + aborted;
+    } catch (InterruptedException e) {
+      return 1;
+    }
+  }
+
+  /**
+   * Run the query and print each matching series uid as soon as it comes.
+   */
+  private static void performQuery()
+  {
+    try {
+      nbiaClient.query(nbiaClient.readQuery(query), new QueryCallback() {
+        public void series(String uuid) {
+          System.out.print( uuid + "\n" );
+          System.out.flush();
+        }
+      });
+    } catch (AxisFault e) {
+      System.out.println("Internal Server Error at NBIA Site.");
+      if( verbose ) {
+        e.printStackTrace();
+      }
+    } catch (Exception e) {
+      System.out.println("Unknown Server Error");
+      if( verbose ) {
+        e.printStackTrace();
+      }   
     }
   }
   
@@ -22,18 +22,21 @@ package com.kitware.nbia;
  */
 import jargs.gnu.CmdLineParser;
 
-import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Date;
-import java.util.HashMap;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.Vector;
-
-import org.apache.axis.AxisFault;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.gson.Gson;
 
@@ -50,62 +53,565 @@ public class NBIAAdapterHTTPServer implements HttpConstants {
   private static Configurator configurator;
   private static String gridServiceUrl;
   private static String clientDownloadLocation;
+  private static long cacheMaxBytes;
+  private static long cachePartialTtlSeconds;
+  private static String statusJournalFile;
+  private static long statusTtlSeconds;
+  private static int statusMaxEntries;
+  private static long statusMaxWaitSeconds;
+  private static int statusMaxWaiters;
+  private static String queryDirectory;
+  private static long queryCacheTtlSeconds;
+  private static int queryCacheMaxEntries;
+  private static int queryCacheMaxResults;
+  
+  protected static final String serverName = "NBIAAdapter";
   
-  protected String serverName = "NBIAAdapter";
+  /**
+   * The media types the routes serve, for content negotiation
+   */
+  static final String JSON = "application/json";
+  static final String NDJSON = "application/x-ndjson";
+  static final String ZIP = "application/zip";
+  static final String MULTIPART = "multipart/mixed";
+  static final String EVENT_STREAM = "text/event-stream";
 
   static Vector<Worker> threads = new Vector<Worker>();
   
-  static HashMap<String,Response> uuidStatus = new HashMap<String,Response>();
+  static StatusTable uuidStatus;
+  
+  /**
+   * The long polls and event streams open, see holdWaiter
+   */
+  private static final AtomicInteger waiters = new AtomicInteger();
+  
+  /**
+   * Reported for uuids the server has never heard of
+   */
+  static final Response NOT_STARTED = new Response("Download Not Started.",
+    false);
+  static final byte[] NOT_STARTED_JSON = StatusTable.toJson(NOT_STARTED);
 
   static int timeout;
   private static int port;
   static int workers;
+  static int downloads;
+  private static String mode;
   
-  protected static PrintStream log = null;
+  static DownloadEngine downloadEngine;
+  static SeriesCache seriesCache;
+  static StatusJournal statusJournal;
+  static QueryCache queryCache;
+  
+  /**
+   * The client shared by every request, see setupClient
+   */
+  private static NBIASimpleClient client;
+  
+  protected static AsyncLog log = null;
 
+  /**
+   * Shared by the routes; Gson is thread safe and costly to create
+   */
+  static final Gson json = new Gson();
+  
   public static String getStatus(String uuid)
   {
-    Gson json = new Gson();
-    synchronized(uuidStatus)
+    try
+    {
+      return new String(getStatusJson(uuid), "UTF-8");
+    }
+    catch (UnsupportedEncodingException e)
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+  
+  /**
+   * @param uuid - the uuid of the dataset
+   * @return its status as UTF-8 json, serialized when it was recorded. The
+   *         array is shared and must not be modified.
+   */
+  static byte[] getStatusJson(String uuid)
+  {
+    byte[] r = uuidStatus.getJson(uuid);
+    return r == null ? NOT_STARTED_JSON : r;
+  }
+  
+  /**
+   * @return the server-wide status (cache and download engine) as json
+   */
+  public static String getServerStatus()
+  {
+    return json.toJson(new ServerStatus(seriesCache, downloadEngine));
+  }
+  
+  public static void setDone(String uuid)
+  {
+    setDone(uuid, null);
+  }
+  
+  public static void setDone(String uuid, Long job)
+  {
+    uuidStatus.put(StatusJournal.OP_DONE, uuid,
+      new Response("Download Complete.",true,job));
+  }
+  
+  public static void setFailure(String uuid)
+  {
+    setFailure(uuid, "Download Failed.", null);
+  }
+  
+  public static void setFailure(String uuid, String message, Long job)
+  {
+    uuidStatus.put(StatusJournal.OP_FAILURE, uuid,
+      new Response(message,false,job));
+  }
+  
+  public static void setStatus(String uuid, Response r)
+  {
+    uuidStatus.put(StatusJournal.OP_STATUS, uuid, r);
+  }
+  
+  /**
+   * Tell whoever waits on a download that its progress moved.
+   * @param uuid - the uuid of the dataset
+   */
+  public static void setProgressed(String uuid)
+  {
+    uuidStatus.progressed(uuid);
+  }
+  
+  /**
+   * Dispatch a parsed request to its route. Shared by every front end so
+   * that they all serve the same replies. Matching the route works on the
+   * request buffer and allocates nothing; Strings are only made for the
+   * parameters a route uses.
+   * @param req - the request, with its head parsed
+   * @param from - the address of the client
+   * @return the reply to send. For a HEAD request, send it without its body.
+   */
+  static HttpReply route(HttpRequest req, String from)
+  {
+    long started = System.nanoTime();
+    Router.Route r = Router.find(req);
+    int id = Router.resolve(r, req);
+    HttpReply reply;
+    if( req.method != HttpRequest.GET
+      && (req.method != HttpRequest.HEAD || !Router.allowsHead(id)) )
+    {
+      reply = HttpReply.text(HTTP_BAD_METHOD, "Method Not Allowed",
+        "Method Not Allowed\n").header("Allow",
+        Router.allowsHead(id) ? "GET, HEAD" : "GET");
+    }
+    else
     {
-      if( !uuidStatus.containsKey(uuid))
+      switch( id )
       {
-        uuidStatus.put(uuid, new Response("Download Not Started.", false));
+      case Router.FETCH:
+        reply = req.accepts(JSON) ? fetchUUID(req.segment(2), from)
+          : notAcceptable(JSON);
+        break;
+      case Router.STREAM:
+        boolean multipart = "multipart".equals(queryParam(req.query(),
+          "format")) || req.asksFor(MULTIPART);
+        if( multipart || req.accepts(ZIP) )
+        {
+          reply = streamUUID(req.segment(2), multipart, from);
+        }
+        else
+        {
+          reply = notAcceptable(ZIP);
+        }
+        break;
+      case Router.QUERY:
+        reply = req.accepts(NDJSON) || req.accepts(JSON)
+          ? queryName(req.segment(2), req.target(), from)
+          : notAcceptable(NDJSON);
+        break;
+      case Router.INVALIDATE_QUERY:
+        reply = req.accepts(JSON) ? invalidateQuery(req.segment(3),
+          req.target(), from) : notAcceptable(JSON);
+        break;
+      case Router.STATUS:
+        reply = req.accepts(JSON) ? statusUUID(req.internedSegment(2),
+          req.hasQuery() ? queryParam(req.query(), "wait") : null, from)
+          : notAcceptable(JSON);
+        break;
+      case Router.EVENTS:
+        reply = req.accepts(EVENT_STREAM) ? statusEvents(req.segment(2),
+          req.hasQuery() ? queryParam(req.query(), "uuid") : null, from)
+          : notAcceptable(EVENT_STREAM);
+        break;
+      case Router.SERVER_STATUS:
+        reply = req.accepts(JSON) ? statusServer(from)
+          : notAcceptable(JSON);
+        break;
+      case Router.METRICS:
+        reply = req.accepts("text/plain")
+          ? new HttpReply(HTTP_OK, "OK", "text/plain; version=0.0.4",
+            HttpReply.utf8(Metrics.render())) : notAcceptable("text/plain");
+        break;
+      default:
+        reply = notFound(req.target(), from);
       }
-      return json.toJson(uuidStatus.get(uuid));
     }
+    // The status route is polled, and only counts in the metrics
+    if (id != Router.STATUS)
+    {
+      log(req.target());
+    }
+    Metrics.request(id, reply.code, System.nanoTime() - started);
+    return reply;
   }
   
-  public static void setDone(String uuid)
+  /**
+   * Reply with a 406 when the Accept header of the request rules out the
+   * only type a route serves.
+   * @param type - the type the route serves
+   */
+  static HttpReply notAcceptable(String type)
+  {
+    return HttpReply.text(HTTP_NOT_ACCEPTABLE, "Not Acceptable",
+      "Not Acceptable\n\nThis resource is served as " + type + ".\n");
+  }
+  
+  /**
+   * Reply with a 400 for a uid that is not dot separated numbers. Such a uid
+   * could name anything but a series directory of the cache, e.g. "..".
+   * @param uuid - the uid as it came in
+   */
+  static HttpReply badUid(String uuid)
   {
-    synchronized(uuidStatus)
+    log("Turning away malformed uid " + uuid);
+    return HttpReply.text(HTTP_BAD_REQUEST, "Bad Request",
+      "Bad Request\n\nA series uid is dot separated numbers.\n");
+  }
+  
+  /**
+   * Queue the download on the download engine and reply straight away with
+   * a 202 carrying the job id. The transfer itself never runs on a worker.
+   * @param uuid - the uuid of the dataset
+   * @param from - the address of the client
+   */
+  static HttpReply fetchUUID(String uuid, String from)
+  {
+    log("From " + from);
+    if (!SeriesCache.isUid(uuid))
+    {
+      return badUid(uuid);
+    }
+    log("Queueing " + uuid);
+    if (downloadEngine.submit(uuid) == null)
     {
-      uuidStatus.put(uuid, new Response("Download Complete.",true));
+      long wait = downloadEngine.estimateWaitSeconds();
+      log("Queue full, turning away " + uuid);
+      return HttpReply.json(HTTP_UNAVAILABLE, "Service Unavailable",
+        json.toJson(new Response("Download queue is full.", false)))
+        .header("Retry-After", Long.toString(wait));
     }
+    return HttpReply.json(HTTP_ACCEPTED, "Accepted", getStatusJson(uuid));
   }
   
-  public static void setFailure(String uuid)
+  /**
+   * Relay the series straight from the grid to the client. The front end
+   * runs the returned reply on a thread that may block. The grid limiter
+   * only covers the opening of a transfer, so at most as many streams as
+   * there are download threads are relayed at once, which bounds the
+   * transfers open on the grid the same way for both routes.
+   * @param uuid - the uuid of the dataset
+   * @param multipart - one part per file instead of the raw zip
+   * @param from - the address of the client
+   */
+  static HttpReply streamUUID(String uuid, boolean multipart, String from)
   {
-    synchronized(uuidStatus)
+    log("From " + from);
+    if (!SeriesCache.isUid(uuid))
     {
-      uuidStatus.put(uuid, new Response("Download Failed.",false));      
+      return badUid(uuid);
     }
+    if (!SeriesStream.hold(downloads))
+    {
+      log("Too many streams, turning away " + from);
+      return HttpReply.json(HTTP_UNAVAILABLE, "Service Unavailable",
+        json.toJson(new Response("Too many streams.", false)))
+        .header("Retry-After", Long.toString(
+          downloadEngine.estimateWaitSeconds()));
+    }
+    log("Streaming " + uuid);
+    return new SeriesStream(uuid, multipart);
   }
   
-  public static void setStatus(String uuid, Response r)
+  /**
+   * Run a CQL file of the query directory, streaming the matching series.
+   * @param name - the file name, with or without the .xml extension
+   * @param target - the request target
+   * @param from - the address of the client
+   */
+  static HttpReply queryName(String name, String target, String from)
   {
-    synchronized(uuidStatus)
+    File cql = queryFile(name);
+    if (cql == null)
     {
-      uuidStatus.put(uuid, r);
+      return notFound(target, from);
     }
+    log("From " + from);
+    log("Running query " + cql);
+    return new QueryStream(cql);
   }
   
-  /* print to the log file */
-  protected static void log(String s) {
-    synchronized (log) {
-      log.println(s);
-      log.flush();
+  /**
+   * Drop cached query results: those of one CQL file of the query
+   * directory, or all of them.
+   * @param name - the file name, or null for every query
+   * @param target - the request target
+   * @param from - the address of the client
+   */
+  static HttpReply invalidateQuery(String name, String target, String from)
+  {
+    log("From " + from);
+    if (name == null)
+    {
+      int n = queryCache.invalidateAll();
+      log("Invalidating every cached query");
+      return HttpReply.json(HTTP_OK, "OK", json.toJson(new Response(
+        "Invalidated " + n + " cached queries.", true)));
+    }
+    File cql = queryFile(name);
+    if (cql == null)
+    {
+      return notFound(target, from);
+    }
+    log("Invalidating cached query " + cql);
+    boolean removed;
+    try
+    {
+      removed = queryCache.invalidate(queryCache.keyFor(cql));
+    }
+    catch (Exception e)
+    {
+      return HttpReply.json(HTTP_SERVER_ERROR, "Internal Server Error",
+        json.toJson(new Response("Could not read the query.", false)));
+    }
+    return HttpReply.json(HTTP_OK, "OK", json.toJson(new Response(removed
+      ? "Invalidated 1 cached query." : "The query was not cached.", true)));
+  }
+  
+  /**
+   * @param name - the name of a CQL file, with or without the .xml extension
+   * @return the file in the query directory, or null if there is none
+   */
+  static File queryFile(String name)
+  {
+    File cql = new File(queryDirectory,
+      name.endsWith(".xml") ? name : name + ".xml");
+    if (name.startsWith(".") || !cql.isFile())
+    {
+      return null;
+    }
+    return cql;
+  }
+  
+  /**
+   * Reply with the status of a dataset, at once or, when asked to wait, as
+   * soon as it changes. Done and failed statuses are sent at once.
+   * @param uuid - the uuid of the dataset
+   * @param wait - the longest to wait for a change, e.g. 30s, or null
+   * @param from - the address of the client
+   */
+  static HttpReply statusUUID(String uuid, String wait, String from)
+  {
+    long version = uuidStatus.getVersion(uuid);
+    if (wait != null)
+    {
+      long millis = parseMillis(wait);
+      if (millis < 0)
+      {
+        return HttpReply.text(HTTP_BAD_REQUEST, "Bad Request",
+          "Bad Request\n\nwait takes a duration such as 30s or 500ms.\n");
+      }
+      millis = Math.min(millis, statusMaxWaitSeconds * 1000);
+      if (millis > 0 && !uuidStatus.isTerminal(uuid))
+      {
+        if (!holdWaiter())
+        {
+          return tooManyWaiters(from);
+        }
+        return new StatusWait(uuidStatus, uuid, version, millis);
+      }
+    }
+    return HttpReply.okJson(getStatusJson(uuid));
+  }
+  
+  /**
+   * Stream the statuses of some datasets, or of all of them, as Server-Sent
+   * Events. Each stream holds a thread for as long as it lasts, a worker of
+   * the pool in pool mode, so it takes one of the statusMaxWaiters places
+   * shared with the long polls, see holdWaiter.
+   * @param uuid - the uuid of a dataset, or null
+   * @param uuids - a comma separated list of uuids, or null
+   * @param from - the address of the client
+   */
+  static HttpReply statusEvents(String uuid, String uuids, String from)
+  {
+    log("From " + from);
+    String[] watched = null;
+    if (uuid != null)
+    {
+      watched = new String[] { uuid };
+    }
+    else if (uuids != null && uuids.length() > 0)
+    {
+      watched = uuids.split(",");
+    }
+    if (watched != null)
+    {
+      for (String w : watched)
+      {
+        if (!SeriesCache.isUid(w))
+        {
+          return badUid(w);
+        }
+      }
+    }
+    if (!holdWaiter())
+    {
+      return tooManyWaiters(from);
+    }
+    log("Following " + (watched == null ? "every status"
+      : watched.length + " statuses"));
+    return new StatusEvents(uuidStatus, watched);
+  }
+  
+  /**
+   * Take one of the statusMaxWaiters places of the requests that stay open
+   * until a status changes, long polls and event streams. In pool mode each
+   * holds a worker, so there are at most half as many places as workers and
+   * waiters alone never make the accept loop start additional workers.
+   * @return false if every place is taken
+   */
+  static boolean holdWaiter()
+  {
+    for (;;)
+    {
+      int held = waiters.get();
+      if (held >= statusMaxWaiters)
+      {
+        return false;
+      }
+      if (waiters.compareAndSet(held, held + 1))
+      {
+        return true;
+      }
+    }
+  }
+  
+  /**
+   * Give back a place taken by holdWaiter, once the reply is sent or dropped
+   */
+  static void releaseWaiter()
+  {
+    waiters.decrementAndGet();
+  }
+  
+  /**
+   * @return the number of long polls and event streams open
+   */
+  static int getWaiterCount()
+  {
+    return waiters.get();
+  }
+  
+  /**
+   * @param from - the address of the client turned away
+   */
+  private static HttpReply tooManyWaiters(String from)
+  {
+    log("Too many waiting requests, turning away " + from);
+    return HttpReply.json(HTTP_UNAVAILABLE, "Service Unavailable",
+      json.toJson(new Response("Too many waiting requests.", false)))
+      .header("Retry-After", Long.toString(StatusEvents.KEEPALIVE_MILLIS
+        / 1000));
+  }
+  
+  /**
+   * @param duration - a number of seconds, optionally followed by s, or a
+   *          number followed by ms or m
+   * @return the duration in milliseconds, or -1 if it can't be read
+   */
+  static long parseMillis(String duration)
+  {
+    long unit = 1000;
+    String n = duration;
+    if (n.endsWith("ms"))
+    {
+      unit = 1;
+      n = n.substring(0, n.length() - 2);
+    }
+    else if (n.endsWith("s"))
+    {
+      n = n.substring(0, n.length() - 1);
+    }
+    else if (n.endsWith("m"))
+    {
+      unit = 60 * 1000;
+      n = n.substring(0, n.length() - 1);
+    }
+    try
+    {
+      long value = Long.parseLong(n);
+      return value < 0 || value > Long.MAX_VALUE / unit ? -1 : value * unit;
+    }
+    catch (NumberFormatException e)
+    {
+      return -1;
+    }
+  }
+  
+  static HttpReply statusServer(String from)
+  {
+    log("From " + from);
+    log("Getting server status");
+    return HttpReply.json(HTTP_OK, "OK", getServerStatus());
+  }
+  
+  /**
+   * Reply with a 404 if we don't know how to handle the request.
+   */
+  static HttpReply notFound(String target, String from)
+  {
+    log("From " + from);
+    log("Asking for " + target);
+    return HttpReply.notFound();
+  }
+  
+  /**
+   * @param query - the query string of a request target, without the '?'
+   * @param name - the parameter to look up
+   * @return the value of the parameter, or null if it is not there
+   */
+  static String queryParam(String query, String name)
+  {
+    for (String pair : query.split("&"))
+    {
+      int eq = pair.indexOf('=');
+      String key = eq < 0 ? pair : pair.substring(0, eq);
+      if (key.equals(name))
+      {
+        return eq < 0 ? "" : pair.substring(eq + 1);
+      }
     }
+    return null;
+  }
+  
+  /* print to the log file, from a background writer */
+  protected static void log(String s) {
+    log.log(s);
+  }
+
+  /* print a stack trace to the log file as one record */
+  protected static void log(Throwable e) {
+    log.log(e);
   }
   
 
@@ -113,6 +619,8 @@ public class NBIAAdapterHTTPServer implements HttpConstants {
     verbosePrint("Port = " + port);
     verbosePrint("Timeout = " + timeout);
     verbosePrint("Workers = " + workers);
+    verbosePrint("Downloads = " + downloads);
+    verbosePrint("Mode = " + mode);
   }
   
   /**
@@ -139,9 +647,18 @@ public class NBIAAdapterHTTPServer implements HttpConstants {
     CmdLineParser.Option workersOption = parser.addHelp(
         parser.addIntegerOption('w', "workers"), 
         "The number of worker threads the server will use to handle requests.");
+    CmdLineParser.Option downloadsOption = parser.addHelp(
+        parser.addIntegerOption('d', "downloads"), 
+        "The number of series downloads the server will run at the same time.");
     CmdLineParser.Option timeoutOption = parser.addHelp(
         parser.addIntegerOption('t', "timeout"), 
         "The amount of time to keep a connection open (0 for unlimited)");
+    CmdLineParser.Option modeOption = parser.addHelp(
+        parser.addStringOption('m', "mode"), 
+        "How connections are served: pool (a thread per connection from the "
+        + "worker pool), nio (a single non-blocking event loop with "
+        + "keep-alive) or virtual (a virtual thread per connection and per "
+        + "download, Java 21+; -w and -d are ignored).");
     CmdLineParser.Option logOption = parser.addHelp(
         parser.addStringOption('o', "log"),
         "Log the server data to a specified file (stdout of not specified).");
@@ -160,8 +677,10 @@ public class NBIAAdapterHTTPServer implements HttpConstants {
     help = (Boolean) parser.getOptionValue(helpOption, Boolean.FALSE);
     port = (Integer) parser.getOptionValue(portOption, 8080);
     workers = (Integer) parser.getOptionValue(workersOption, 5);
+    downloads = (Integer) parser.getOptionValue(downloadsOption, 4);
     timeout = (Integer) parser.getOptionValue(timeoutOption, 0);
     logFile = (String) parser.getOptionValue(logOption, "");
+    mode = (String) parser.getOptionValue(modeOption, "pool");
     
     // Print usage information
     if (help) {
@@ -185,20 +704,70 @@ public class NBIAAdapterHTTPServer implements HttpConstants {
         "serverPort"));
       workers = Integer.parseInt(configurator.getProps().getProperty(
         "serverWorkers"));
+      downloads = Integer.parseInt(configurator.getProps().getProperty(
+        "serverDownloads"));
       timeout = Integer.parseInt(configurator.getProps().getProperty(
         "serverTimeout"));
+      mode = configurator.getProps().getProperty("serverMode");
     }
     
     gridServiceUrl = configurator.getProps().getProperty(
       "gridServiceUrl");
     clientDownloadLocation = configurator.getProps().getProperty(
       "clientDownloadLocation");
+    cacheMaxBytes = Long.parseLong(configurator.getProps().getProperty(
+      "cacheMaxBytes"));
+    cachePartialTtlSeconds = Long.parseLong(configurator.getProps()
+      .getProperty("cachePartialTtlSeconds"));
+    statusJournalFile = configurator.getProps().getProperty(
+      "statusJournal");
+    statusTtlSeconds = Long.parseLong(configurator.getProps().getProperty(
+      "statusTtlSeconds"));
+    statusMaxEntries = Integer.parseInt(configurator.getProps().getProperty(
+      "statusMaxEntries"));
+    statusMaxWaitSeconds = Long.parseLong(configurator.getProps().getProperty(
+      "statusMaxWaitSeconds"));
+    statusMaxWaiters = Integer.parseInt(configurator.getProps()
+      .getProperty("statusMaxWaiters"));
+    queryDirectory = configurator.getProps().getProperty(
+      "queryDirectory");
+    queryCacheTtlSeconds = Long.parseLong(configurator.getProps().getProperty(
+      "queryCacheTtlSeconds"));
+    queryCacheMaxEntries = Integer.parseInt(configurator.getProps()
+      .getProperty("queryCacheMaxEntries"));
+    queryCacheMaxResults = Integer.parseInt(configurator.getProps()
+      .getProperty("queryCacheMaxResults"));
     
   }
   
-  public static NBIASimpleClient setupClient()
+  /**
+   * @return the client shared by every request, built on first use
+   */
+  public static synchronized NBIASimpleClient setupClient()
   {
-    return new NBIASimpleClient(gridServiceUrl, clientDownloadLocation);
+    if (client == null)
+    {
+      client = new NBIASimpleClient(gridServiceUrl, clientDownloadLocation);
+      client.setWriters(Integer.parseInt(configurator.getProps().getProperty(
+        "fetchWriters")));
+      client.setPreallocate(Boolean.parseBoolean(
+        configurator.getProps().getProperty("fetchPreallocate")));
+      client.getPool().setMaxIdle(Integer.parseInt(configurator.getProps()
+        .getProperty("gridClientMaxIdle")));
+      client.getPool().setIdleMillis(1000 * Long.parseLong(configurator
+        .getProps().getProperty("gridClientIdleSeconds")));
+      client.getPool().getLimiter().setBounds(Integer.parseInt(configurator
+        .getProps().getProperty("gridConcurrencyMin")), Integer.parseInt(
+        configurator.getProps().getProperty("gridConcurrencyMax")));
+      client.getPool().getBreaker().setThreshold(Integer.parseInt(configurator
+        .getProps().getProperty("gridBreakerFailures")), 1000 * Long.parseLong(
+        configurator.getProps().getProperty("gridBreakerOpenSeconds")));
+      client.setRetryPolicy(new RetryPolicy(Integer.parseInt(configurator
+        .getProps().getProperty("gridRetries")), Long.parseLong(configurator
+        .getProps().getProperty("gridRetryBaseMillis")), Long.parseLong(
+        configurator.getProps().getProperty("gridRetryMaxMillis"))));
+    }
+    return client;
   }
 
   public static void main(String[] args) throws Exception {
@@ -207,15 +776,27 @@ public class NBIAAdapterHTTPServer implements HttpConstants {
     
     loadConfiguration();
 
+    OutputStream logStream;
     if( logFile == "")
     {
-      log = System.out;
+      logStream = System.out;
     }
     else
     {
-      File file = new File(logFile);
-      log = new PrintStream(file);
+      logStream = new FileOutputStream(logFile);
     }
+    Properties props = configurator.getProps();
+    log = new AsyncLog(logStream,
+      Integer.parseInt(props.getProperty("logQueue")),
+      AsyncLog.Policy.valueOf(props.getProperty("logPolicy").toUpperCase()),
+      props.getProperty("logFormat").equals("json"),
+      Long.parseLong(props.getProperty("logFlushMillis")),
+      Integer.parseInt(props.getProperty("logFlushBytes")));
+    Runtime.getRuntime().addShutdownHook(new Thread("log shutdown") {
+      public void run() {
+        log.close();
+      }
+    });
     
     // Save the configuration
     if (saveConfig != "") {
@@ -225,6 +806,84 @@ public class NBIAAdapterHTTPServer implements HttpConstants {
     
     printProps();
     
+    File downloadRoot = new File(setupClient().defaultDownloadLocation());
+    
+    // Bring back the statuses known before the last shutdown
+    if (statusJournalFile.isEmpty())
+    {
+      statusJournalFile = new File(downloadRoot, ".nbia-status-journal")
+        .getPath();
+    }
+    long started = System.currentTimeMillis();
+    statusJournal = new StatusJournal(new File(statusJournalFile));
+    uuidStatus = new StatusTable(statusTtlSeconds * 1000, statusMaxEntries,
+      statusJournal);
+    int replayed = statusJournal.restore(uuidStatus);
+    verbosePrint("Replayed " + replayed + " statuses in "
+      + (System.currentTimeMillis() - started) + " ms");
+    long sweep = Math.max(1000, Math.min(statusTtlSeconds * 1000, 60 * 1000));
+    Timer housekeeping = new Timer("housekeeping", true);
+    housekeeping.schedule(new TimerTask() {
+      public void run() {
+        uuidStatus.expire();
+      }
+    }, sweep, sweep);
+    housekeeping.schedule(new TimerTask() {
+      public void run() {
+        GridClientPool.evictAllIdle();
+      }
+    }, 60 * 1000, 60 * 1000);
+    
+    seriesCache = new SeriesCache(downloadRoot, cacheMaxBytes,
+      cachePartialTtlSeconds * 1000);
+    queryCache = new QueryCache(queryCacheTtlSeconds * 1000,
+      queryCacheMaxEntries, queryCacheMaxResults);
+    if (mode.equals("virtual"))
+    {
+      if (!VirtualThreads.available())
+      {
+        System.err.println("The virtual mode requires Java 21 or newer.");
+        System.exit(2);
+      }
+      downloadEngine = new DownloadEngine(VirtualThreads.newPerTaskExecutor(),
+        seriesCache);
+    }
+    else
+    {
+      downloadEngine = new DownloadEngine(downloads, seriesCache);
+    }
+    downloadEngine.skipJobIds(statusJournal.getMaxJob());
+    
+    // Queue the jobs that were interrupted by the last shutdown
+    for (String uuid : statusJournal.getInterrupted())
+    {
+      log("Re-queueing interrupted download of " + uuid);
+      downloadEngine.submit(uuid);
+    }
+    downloadEngine.setMaxQueued(Integer.parseInt(configurator.getProps()
+      .getProperty("serverMaxQueued")));
+    
+    if (mode.equals("nio"))
+    {
+      new NioHttpServer(port, timeout).run();
+      return;
+    }
+    
+    if (mode.equals("virtual"))
+    {
+      serveOnVirtualThreads();
+      return;
+    }
+    
+    /* long polls and event streams hold a worker each; leave some for
+       everything else */
+    if (statusMaxWaiters > workers / 2)
+    {
+      statusMaxWaiters = Math.max(1, workers / 2);
+      log("Serving at most " + statusMaxWaiters
+        + " long polls and event streams");
+    }
+    
     /* start worker threads */
     for (int i = 0; i < workers; ++i) {
       Worker w = new Worker();
@@ -252,6 +911,23 @@ public class NBIAAdapterHTTPServer implements HttpConstants {
     }
   }
 
+  /**
+   * Accept connections forever, handling each one on its own virtual thread.
+   * The blocking socket code of the Worker is used as is.
+   */
+  private static void serveOnVirtualThreads() throws IOException {
+    ExecutorService connections = VirtualThreads.newPerTaskExecutor();
+    ServerSocket ss = new ServerSocket(port);
+    while (true) {
+      final Worker w = new Worker(ss.accept());
+      connections.execute(new Runnable() {
+        public void run() {
+          w.serve();
+        }
+      });
+    }
+  }
+
 /**
  * Print things only if verbosity is turned on
  * 
@@ -269,31 +945,117 @@ class Response
 {  
   public String message;
   public boolean ok;
+  public Long job;
+  public DownloadProgress progress;
   Response()
   {
   }
   Response(String m, boolean ok)
+  {
+    this(m, ok, null);
+  }
+  Response(String m, boolean ok, Long job)
   {
     this.message = new String(m);
     this.ok = ok;
+    this.job = job;
   }
 }
 
-class Worker extends NBIAAdapterHTTPServer implements HttpConstants, Runnable {
-  final static int BUF_SIZE = 2048;
+class ServerStatus
+{
+  public long cacheHits;
+  public long cacheMisses;
+  public long cacheEvictions;
+  public long cacheBytes;
+  public long cacheMaxBytes;
+  public int cacheSeries;
+  public int downloadsActive;
+  public int downloadsQueued;
+  public int downloadsInFlight;
+  public int streamsActive;
+  public long queryCacheHits;
+  public long queryCacheMisses;
+  public int queryCacheEntries;
+  public long gridClientsCreated;
+  public long gridClientsReused;
+  public int gridClientsIdle;
+  public int gridConcurrencyLimit;
+  public int gridCallsActive;
+  public int gridCallsWaiting;
+  public String gridBreaker;
+  public long gridBreakerTrips;
+  public long gridBreakerRejected;
+  public int statuses;
+  ServerStatus(SeriesCache cache, DownloadEngine engine)
+  {
+    this.statuses = NBIAAdapterHTTPServer.uuidStatus.size();
+    this.cacheHits = cache.getHits();
+    this.cacheMisses = cache.getMisses();
+    this.cacheEvictions = cache.getEvictions();
+    this.cacheBytes = cache.getBytes();
+    this.cacheMaxBytes = cache.getMaxBytes();
+    this.cacheSeries = cache.getSeriesCount();
+    this.downloadsActive = engine.getActiveCount();
+    this.downloadsQueued = engine.getQueueDepth();
+    this.downloadsInFlight = engine.getInFlightCount();
+    this.streamsActive = SeriesStream.getActiveCount();
+    QueryCache queries = NBIAAdapterHTTPServer.queryCache;
+    this.queryCacheHits = queries.getHits();
+    this.queryCacheMisses = queries.getMisses();
+    this.queryCacheEntries = queries.getEntryCount();
+    GridClientPool pool = NBIAAdapterHTTPServer.setupClient().getPool();
+    this.gridClientsCreated = pool.getCreated();
+    this.gridClientsReused = pool.getReused();
+    this.gridClientsIdle = pool.getIdleCount();
+    AdaptiveLimiter limiter = pool.getLimiter();
+    this.gridConcurrencyLimit = limiter.getLimit();
+    this.gridCallsActive = limiter.getInFlight();
+    this.gridCallsWaiting = limiter.getWaiting();
+    CircuitBreaker breaker = pool.getBreaker();
+    this.gridBreaker = breaker.getState();
+    this.gridBreakerTrips = breaker.getTrips();
+    this.gridBreakerRejected = breaker.getRejected();
+  }
+}
 
-  static final byte[] EOL = { (byte) '\r', (byte) '\n' };
+class Worker extends NBIAAdapterHTTPServer implements HttpConstants, Runnable {
+  final static int BUF_SIZE = 8192;
 
   /* buffer to use for requests */
   byte[] buf;
+  /* the request parsed from it */
+  final HttpRequest request = new HttpRequest();
   /* Socket to client we're handling */
   private Socket s;
+  /* the address of the last client and its text, kept for the next one */
+  private InetAddress lastAddress;
+  private String lastFrom;
 
   Worker() {
     buf = new byte[BUF_SIZE];
     s = null;
   }
 
+  /**
+   * A worker serving a single connection, outside of the pool
+   */
+  Worker(Socket s) {
+    buf = new byte[BUF_SIZE];
+    this.s = s;
+  }
+
+  /**
+   * Handle the connection given to the constructor, then return.
+   */
+  void serve() {
+    try {
+      handleClient();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
   synchronized void setSocket(Socket s) {
     this.s = s;
     notify();
@@ -332,8 +1094,17 @@ class Worker extends NBIAAdapterHTTPServer implements HttpConstants, Runnable {
   }
 
   void handleClient() throws IOException {
-    InputStream is = new BufferedInputStream(s.getInputStream());
-    PrintStream ps = new PrintStream(s.getOutputStream());
+    Metrics.workersBusy.incrementAndGet();
+    try {
+      serveConnection();
+    } finally {
+      Metrics.workersBusy.decrementAndGet();
+    }
+  }
+
+  private void serveConnection() throws IOException {
+    InputStream is = s.getInputStream();
+    OutputStream os = s.getOutputStream();
     /*
      * we will only block in read for this many milliseconds before we fail with
      * java.io.InterruptedIOException, at which point we will abandon the
@@ -341,176 +1112,80 @@ class Worker extends NBIAAdapterHTTPServer implements HttpConstants, Runnable {
      */
     s.setSoTimeout(NBIAAdapterHTTPServer.timeout);
     s.setTcpNoDelay(true);
-    /* zero out the buffer from last time */
-    for (int i = 0; i < BUF_SIZE; i++) {
-      buf[i] = 0;
-    }
     try {
       /*
-       * We only support HTTP GET/HEAD, and don't support any fancy HTTP
-       * options, so we're only interested really in the first line.
+       * Read until the head is complete. The buffer and the request are
+       * reused from one connection to the next and parsed in place.
        */
-      int nread = 0, r = 0;
-
-      while (nread < BUF_SIZE) {
-        r = is.read(buf, nread, BUF_SIZE - nread);
+      request.reset(0);
+      int nread = 0;
+      int head;
+      while ((head = request.parse(buf, nread)) == HttpRequest.NEED_MORE) {
+        if (nread == BUF_SIZE) {
+          os.write(HttpReply.text(HTTP_ENTITY_TOO_LARGE, "Request Too Large",
+              "Request Too Large\n").encode("HTTP/1.0", null));
+          os.flush();
+          return;
+        }
+        int r = is.read(buf, nread, BUF_SIZE - nread);
         if (r == -1) {
           /* EOF */
           return;
         }
-        boolean ready = false;
-        int i = nread;
         nread += r;
-        for (; i < nread; i++) {
-          if (buf[i] == (byte) '\n' || buf[i] == (byte) '\r') {
-            ready = true; // read one line
-            break;
-          }
-        }
-        if (ready) {
-          break;
-        }
       }
-
-      /* beginning of file name */
-      int index;
-      if (buf[0] == (byte) 'G' && buf[1] == (byte) 'E' && buf[2] == (byte) 'T'
-          && buf[3] == (byte) ' ') {
-        index = 4;
-      } else {
-        /* we don't support this method */
-        ps.print("HTTP/1.0 " + HTTP_BAD_METHOD + " unsupported method type: ");
-        ps.write(buf, 0, 5);
-        ps.write(EOL);
-        ps.flush();
-        s.close();
+      if (head == HttpRequest.BAD) {
+        os.write(HttpReply.text(HTTP_BAD_REQUEST, "Bad Request",
+            "Bad Request\n").encode("HTTP/1.0", null));
+        os.flush();
         return;
       }
 
-      int bound = index;
-      for (int i = index; i < nread; ++i) {
-        if (buf[i] == (byte) ' ') {
-          bound = i;
-          break;
+      HttpReply reply = route(request, from());
+      if (reply instanceof DeferredReply) {
+        /* e.g. a long poll: wait for it on this thread */
+        try {
+          reply = ((DeferredReply) reply).await();
+        } catch (InterruptedException e) {
+          return;
         }
       }
-      byte[] target = new byte[(bound - index) + 1];
-      int targetIndex = 0;
-      for (int i = index; i < bound; ++i) {
-        target[targetIndex++] = buf[i];
-      }
-      
-      String strTarget = new String(target);
-      String[] tokens = strTarget.split("/");
-      if( tokens[1].equals("fetch") && tokens.length >= 3)
-      {
-        fetchUUID(ps,tokens[2]);
-      }
-      if( tokens[1].equals("status") && tokens.length >= 3)
-      {
-        statusUUID(ps,tokens[2]);
+      if (reply instanceof StreamingReply) {
+        /* long-lived reply: relay it on this thread */
+        try {
+          ((StreamingReply) reply).relay(os, request.http11 ? "HTTP/1.1"
+              : "HTTP/1.0");
+        } catch (IOException e) {
+          /* the client went away or the transfer broke; nothing to report */
+        }
+        return;
       }
-      else
-      {
-        send404(ps, target);
+      /* the request is done with, so its buffer takes the reply */
+      boolean headOnly = request.method == HttpRequest.HEAD;
+      int end = reply.encode(buf, 0, "HTTP/1.0", null, headOnly);
+      if (end >= 0) {
+        os.write(buf, 0, end);
+      } else {
+        os.write(reply.encode("HTTP/1.0", null, headOnly));
       }
-      log(new String(target));
+      os.flush();
 
     } finally {
       s.close();
     }
   }
-  
-  protected void fetchUUID(PrintStream ps, String uuid)
-  {
-    log("From " + s.getInetAddress().getHostAddress());
-    log("Fetching " + uuid);
-    NBIASimpleClient nbia = setupClient();
-    try {
-      setStatus(uuid, new Response("Download Started", false));
-      sendStatus(ps,uuid);
-      nbia.fetchData(uuid, ""); // THE LONG PROCESS
-      setDone(uuid);
-    } catch (AxisFault e) {
-      String err = "Internal Server Error at NBIA Site.";
-      log(err);
-      setStatus(uuid, new Response(err,false));
-      e.printStackTrace(log);
-    } catch(IOException e) {
-      String err = "IOException when writing to socket stream.";
-      log(err);
-      setStatus(uuid, new Response(err,false));
-      e.printStackTrace(log);
-    } catch (Exception e) {
-      String err = "Unknown Server Error";
-      log(err);
-      setStatus(uuid, new Response(err,false));
-      e.printStackTrace(log);
-    }
-  }
-  
-  protected void statusUUID(PrintStream ps, String uuid)
-  {
-    log("From " + s.getInetAddress().getHostAddress());
-    log("Getting status for " + uuid);
-    try {
-      sendStatus(ps,uuid);
-    } catch(IOException e) {
-      log("IOException when writing to socket stream.");
-      e.printStackTrace(log);
-    }
-  }
-  
+
   /**
-   * Helper function for sending the download status in a HTTP reply.
-   * @param ps - the socket's stream object
-   * @param uuid - the uuid of the dataset
-   * @throws IOException
-   */
-  protected void sendStatus(PrintStream ps, String uuid) throws IOException
-  {
-    String response = getStatus(uuid);
-    ps.print("HTTP/1.0 " + HTTP_OK + " OK");
-    ps.write(EOL);
-    ps.print("Server: " + serverName);
-    ps.write(EOL);
-    ps.print("Last Modified: " + new Date());
-    ps.write(EOL);
-    ps.print("Content-Type: application/json");
-    ps.write(EOL);      
-    ps.print("Content-length: " + response.length());
-    ps.write(EOL);
-    ps.write(EOL);
-    ps.print(response);
-    ps.print(EOL);
-    ps.flush();
-    s.close();
-  }
-  
-  /**
-   * Send a 404 to the server if we don't know how to handle the request.
-   * @param ps
-   * @param buf
-   * @throws IOException
-   */
-  void send404(PrintStream ps, byte[] buf) throws IOException {
-    log("From " + s.getInetAddress().getHostAddress());
-    log("Asking for " + new String(buf));
-    String notFound = "Not Found\n\n"
-        + "The requested resource was not found.\n";
-    ps.print("HTTP/1.0 " + HTTP_NOT_FOUND + " not found");
-    ps.write(EOL);
-    ps.print("Server: " + serverName);
-    ps.write(EOL);
-    ps.print("Last Modified: " + new Date());
-    ps.write(EOL);
-    ps.print("Content-length: " + notFound.length());
-    ps.write(EOL);
-    ps.write(EOL);
-    ps.print(notFound);
-    ps.print(EOL);
-    ps.flush();
-    s.close();
+   * @return the address of the client, formatted again only when it differs
+   *         from the last connection's, e.g. not for a client polling
+   */
+  private String from() {
+    InetAddress a = s.getInetAddress();
+    if (!a.equals(lastAddress)) {
+      lastAddress = a;
+      lastFrom = a.getHostAddress();
+    }
+    return lastFrom;
   }
 
 }
@@ -17,40 +17,44 @@ package com.kitware.nbia;
 
 import gov.nih.nci.cagrid.common.Utils;
 import gov.nih.nci.cagrid.cqlquery.CQLQuery;
-import gov.nih.nci.cagrid.cqlresultset.CQLQueryResults;
-import gov.nih.nci.cagrid.data.utilities.CQLQueryResultsIterator;
-import gov.nih.nci.cagrid.ncia.client.NCIACoreServiceClient;
-import gov.nih.nci.ivi.utils.ZipEntryInputStream;
-import gov.nih.nci.ncia.domain.Series;
-
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+
 import java.io.BufferedReader;
-import java.io.EOFException;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.InputStream;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.zip.ZipInputStream;
-
-import org.cagrid.transfer.context.client.TransferServiceContextClient;
-import org.cagrid.transfer.context.client.helper.TransferClientHelper;
-import org.cagrid.transfer.context.stubs.types.TransferServiceContextReference;
 
 
 /**
  * Simple abstraction of the NCIACoreServiceClient and its friends to allow for
- * the easy download of datasets from an NBIA instance.
+ * the easy download of datasets from an NBIA instance. The service stubs come
+ * from the GridClientPool of the grid service URL, so an instance is cheap and
+ * can be shared by several threads. Calls to the grid wait for a slot under
+ * the pool's AdaptiveLimiter, which backs off when the grid slows down, and
+ * are refused with a GridUnavailableException while its CircuitBreaker is
+ * open. The calls themselves go through a GridService, the real caGrid one
+ * unless another is given or FACTORY_PROPERTY names a factory.
  * 
  * @author Patrick Reynolds
  */
 public class NBIASimpleClient {
 
+  /**
+   * The system property naming the GridService.Factory class that makes the
+   * services of the clients constructed without one, instead of caGrid
+   */
+  public static final String FACTORY_PROPERTY = "nbia.gridServiceFactory";
+
   private String gridServiceUrl;
   private String clientDownloadLocation;
+  private GridClientPool pool;
+  private GridService grid;
+  private int writers = 4;
+  private boolean preallocate = true;
+  private RetryPolicy retryPolicy = new RetryPolicy(3, 1000, 30 * 1000);
 
   /**
    * Standard constructor
@@ -61,8 +65,83 @@ public class NBIASimpleClient {
    *          - the target location on disk
    */
   public NBIASimpleClient(String gridServiceUrl, String clientDownloadLocation) {
+    this(gridServiceUrl, clientDownloadLocation, null);
+  }
+
+  /**
+   * Constructor for a client of a given service
+   * 
+   * @param gridServiceUrl
+   *          - the URL of the NBIA Instance
+   * @param clientDownloadLocation
+   *          - the target location on disk
+   * @param grid
+   *          - the service to call, or null for the one of FACTORY_PROPERTY
+   *          or else caGrid
+   */
+  public NBIASimpleClient(String gridServiceUrl,
+      String clientDownloadLocation, GridService grid) {
     this.gridServiceUrl = gridServiceUrl;
     this.clientDownloadLocation = clientDownloadLocation;
+    this.pool = GridClientPool.forUrl(gridServiceUrl);
+    if (grid == null) {
+      String factory = System.getProperty(FACTORY_PROPERTY);
+      grid = factory == null || factory.isEmpty() ? new CaGridService(pool)
+          : newFactory(factory).forUrl(gridServiceUrl);
+    }
+    this.grid = grid;
+  }
+
+  /**
+   * @param name
+   *          - the class name of a GridService.Factory
+   * @return a new instance of it
+   */
+  private static GridService.Factory newFactory(String name) {
+    try {
+      return (GridService.Factory) Class.forName(name).newInstance();
+    } catch (Exception e) {
+      throw new IllegalArgumentException("Cannot use " + name + " as "
+          + FACTORY_PROPERTY, e);
+    }
+  }
+
+  /**
+   * @return the pool of service stubs this client borrows from
+   */
+  public GridClientPool getPool() {
+    return pool;
+  }
+
+  /**
+   * @param writers
+   *          - the number of threads writing extracted files to disk
+   */
+  public void setWriters(int writers) {
+    this.writers = writers;
+  }
+
+  /**
+   * @param preallocate
+   *          - whether to size extracted files before writing them
+   */
+  public void setPreallocate(boolean preallocate) {
+    this.preallocate = preallocate;
+  }
+
+  /**
+   * @param retryPolicy
+   *          - how downloads hit by a transient grid fault are retried
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * @return how downloads hit by a transient grid fault are retried
+   */
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
   }
 
   /**
@@ -76,6 +155,26 @@ public class NBIASimpleClient {
    * @throws Exception
    */
   public void fetchData(String uuid, String output) throws Exception {
+    fetchData(uuid, output, new DownloadProgress());
+  }
+
+  /**
+   * Fetch a dataset with the given uuid from the NBIA instance indicated by the
+   * Grid Service URL and place it in the Client Download Location, publishing
+   * the byte counts as they go.
+   * 
+   * @param uuid
+   *          - the series uuid of the dataset requested
+   * @param output
+   *          - the directory where the files end up.
+   * @param progress
+   *          - the counters to update while transferring
+   * @throws NoDataException
+   *           if the grid sent no data for the series
+   * @throws Exception
+   */
+  public void fetchData(String uuid, String output, DownloadProgress progress)
+      throws Exception {
     String finalOutput;
     if (output == "") {
       finalOutput = defaultDownloadLocation();
@@ -83,53 +182,70 @@ public class NBIASimpleClient {
       finalOutput = output;
     }
 
-    NCIACoreServiceClient client = new NCIACoreServiceClient(
-        this.gridServiceUrl);
-
-    TransferServiceContextReference tscr = client
-    .retrieveDicomDataBySeriesUID(uuid);
-
-    TransferServiceContextClient tclient = new TransferServiceContextClient(
-        tscr.getEndpointReference());
-
-    InputStream istream = TransferClientHelper.getData(tclient
-        .getDataTransferDescriptor());
+    InputStream istream = openData(uuid);
 
     if (istream == null) {
-      System.out.println("istream is null");
-      return;
+      throw new NoDataException(uuid);
     }
 
-    ZipInputStream zis = new ZipInputStream(istream);
-    ZipEntryInputStream zeis = null;
-    BufferedInputStream bis = null;
-    String unzzipedFile = finalOutput;
-    while (true) {
-      try {
-        zeis = new ZipEntryInputStream(zis);
-      } catch (EOFException e) {
-        break;
-      }
-
-      bis = new BufferedInputStream(zeis);
-
-      byte[] data = new byte[8192];
-      int bytesRead = 0;
-      BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(
-          unzzipedFile + File.separator + zeis.getName()));
+    new FetchPipeline(istream, new File(finalOutput), progress, writers,
+        preallocate).run();
+  }
 
-      while ((bytesRead = (bis.read(data, 0, data.length))) > 0) {
-        bos.write(data, 0, bytesRead);
+  /**
+   * Open the transfer of a series zip from the NBIA instance, without
+   * touching the disk. Closing the stream releases the transfer context on
+   * the grid. The limiter and the breaker only cover the call that prepares
+   * the transfer, not the transfer itself: callers bound the transfers they
+   * keep open, as the download threads and the /stream cap of the server do.
+   * 
+   * @param uuid
+   *          - the series uuid of the dataset requested
+   * @return the zip as it arrives, or null if the grid sent no data
+   * @throws Exception
+   */
+  public InputStream openData(String uuid) throws Exception {
+    CircuitBreaker breaker = pool.getBreaker();
+    long ticket = breaker.allow();
+    if (ticket < 0) {
+      throw new GridUnavailableException(gridServiceUrl,
+          breaker.getRetryMillis());
+    }
+    AdaptiveLimiter limiter = pool.getLimiter();
+    long start;
+    try {
+      start = limiter.acquire();
+    } catch (InterruptedException e) {
+      // The grid was never called, so it tells nothing about it
+      breaker.cancel(ticket);
+      throw e;
+    }
+    GridService.Transfer transfer;
+    boolean healthy = false;
+    int outcome = Metrics.GRID_TRANSIENT;
+    try {
+      transfer = grid.retrieve(uuid);
+      healthy = true;
+      outcome = Metrics.GRID_OK;
+    } catch (Exception e) {
+      // A fault about the request itself still shows the grid answering
+      healthy = !RetryPolicy.isTransient(e);
+      if (healthy) {
+        outcome = Metrics.GRID_FAULT;
+      }
+      throw e;
+    } finally {
+      Metrics.gridCall(outcome);
+      limiter.release(start, healthy);
+      if (healthy) {
+        breaker.success(ticket);
+      } else {
+        breaker.failure(ticket);
       }
-      bos.flush();
-      bos.close();
     }
-
-    zis.close();
-    tclient.destroy();
+    return transfer.open();
   }
 
-
   /**
    * Run a CQL query on the target NBIA instance and return the results in a
    * List container.
@@ -138,29 +254,97 @@ public class NBIASimpleClient {
    * @throws All exceptions related to file reading and collection
    */
   public List<String> query( String query ) throws Exception {
+    Iterator<String> iter = queryIterator(readQuery(query));
+    if (iter == null) {
+      return null;
+    }
+    List<String> ret = new ArrayList<String>();
+    while (iter.hasNext()) {
+      ret.add(iter.next());
+    }
+    return ret;
+  }
 
-    NCIACoreServiceClient client = new NCIACoreServiceClient(
-        this.gridServiceUrl);
-    Reader xmlReader = new BufferedReader(new FileReader(query));
-    CQLQuery cqlQuery = (CQLQuery) Utils.deserializeObject(xmlReader, CQLQuery.class);
-    CQLQueryResults result = client.query(cqlQuery);
-
-    if(result != null)  {
-      List<String> ret = new ArrayList<String>();
-      CQLQueryResultsIterator iter = new CQLQueryResultsIterator(result);
-      while (iter.hasNext()) {
-        Series obj = (Series)iter.next();
-        if (obj == null) {  
-          continue;
-        }
-        else {
-          ret.add(obj.getInstanceUID());
-        }
+  /**
+   * Run a CQL query on the target NBIA instance and hand each series uid to
+   * the callback as the results are walked, without collecting them.
+   * @param cqlQuery - the query, see readQuery
+   * @param callback - receives the uids in result order
+   * @return the number of series matched
+   * @throws All exceptions related to the query and the callback
+   */
+  public int query( CQLQuery cqlQuery, QueryCallback callback )
+      throws Exception {
+    Iterator<String> iter = queryIterator(cqlQuery);
+    int count = 0;
+    while (iter != null && iter.hasNext()) {
+      callback.series(iter.next());
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Run a CQL query on the target NBIA instance and walk the results lazily.
+   * Each series uid is only pulled out of the result set when asked for.
+   * @param cqlQuery - the query, see readQuery
+   * @return an iterator over the uids, or null if the grid sent no results
+   * @throws All exceptions related to the query
+   */
+  public Iterator<String> queryIterator( CQLQuery cqlQuery ) throws Exception {
+    CircuitBreaker breaker = pool.getBreaker();
+    long ticket = breaker.allow();
+    if (ticket < 0) {
+      throw new GridUnavailableException(gridServiceUrl,
+          breaker.getRetryMillis());
+    }
+    AdaptiveLimiter limiter = pool.getLimiter();
+    long start;
+    try {
+      start = limiter.acquire();
+    } catch (InterruptedException e) {
+      // The grid was never called, so it tells nothing about it
+      breaker.cancel(ticket);
+      throw e;
+    }
+    Iterator<String> result;
+    boolean healthy = false;
+    int outcome = Metrics.GRID_TRANSIENT;
+    try {
+      result = grid.query(cqlQuery);
+      healthy = true;
+      outcome = Metrics.GRID_OK;
+    } catch (Exception e) {
+      // A fault about the request itself still shows the grid answering
+      healthy = !RetryPolicy.isTransient(e);
+      if (healthy) {
+        outcome = Metrics.GRID_FAULT;
+      }
+      throw e;
+    } finally {
+      Metrics.gridCall(outcome);
+      limiter.release(start, healthy);
+      if (healthy) {
+        breaker.success(ticket);
+      } else {
+        breaker.failure(ticket);
       }
-      return ret;
     }
-    else {
-      return null;
+    return result;
+  }
+
+  /**
+   * Read a CQL query from an XML file.
+   * @param query - Filename for the query
+   * @return the query
+   * @throws All exceptions related to file reading and parsing
+   */
+  public CQLQuery readQuery( String query ) throws Exception {
+    Reader xmlReader = new BufferedReader(new FileReader(query));
+    try {
+      return (CQLQuery) Utils.deserializeObject(xmlReader, CQLQuery.class);
+    } finally {
+      xmlReader.close();
     }
   }
 
@@ -170,7 +354,7 @@ public class NBIASimpleClient {
    * 
    * @return A string indicating the download location
    */
-  private String defaultDownloadLocation() {
+  public String defaultDownloadLocation() {
     String localClient = System.getProperty("java.io.tmpdir") + File.separator
     + clientDownloadLocation;
     if (!new File(localClient).exists()) {
@@ -0,0 +1,478 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector based front end. A single event loop accepts connections, parses
+ * requests and writes replies, so no thread is tied to a connection. Every
+ * route is cheap (fetches only enqueue a job) so they are served straight from
+ * the loop. Connections are persistent by default for HTTP/1.1 and on request
+ * for HTTP/1.0, and pipelined requests are answered in order.
+ *
+ * The exceptions are the streaming replies (/stream, /query, /events), which
+ * block for as long as they last: once the replies before one are written,
+ * its connection is taken off the selector, switched back to blocking mode and
+ * handed to a thread of its own.
+ *
+ * Deferred replies, such as a long poll of a status, keep their connection on
+ * the selector without a thread: the connection stops answering until it is
+ * told the reply is ready, and the loop sends it on its next round.
+ */
+public class NioHttpServer implements HttpConstants, Runnable {
+
+  /**
+   * The largest request head we accept
+   */
+  static final int BUF_SIZE = 8192;
+
+  /**
+   * The largest reply sent from a connection's scratch buffer, which fits a
+   * status with room to spare
+   */
+  static final int SCRATCH_SIZE = 2048;
+
+  private final Selector selector;
+  private final ServerSocketChannel server;
+
+  /**
+   * Idle connections are closed after this many milliseconds, 0 for never
+   */
+  private final int timeout;
+
+  /**
+   * How often the connections are checked for idleness, so that a busy loop
+   * doesn't walk every key after each select
+   */
+  static final long SWEEP_MILLIS = 1000;
+
+  /**
+   * When closeIdle last ran
+   */
+  private long lastSweep;
+
+  /**
+   * Connections to take off the selector at the end of this round
+   */
+  private final List<Connection> handOffs = new ArrayList<Connection>();
+
+  /**
+   * Connections whose deferred reply became ready, from any thread
+   */
+  private final Queue<Connection> resumed =
+    new ConcurrentLinkedQueue<Connection>();
+
+  /**
+   * Threads relaying the streams handed off by the loop
+   */
+  private final ExecutorService streams = Executors
+      .newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+          return new Thread(r, "stream #" + count.getAndIncrement());
+        }
+      });
+
+  /**
+   * Standard constructor. Binds the listening socket.
+   *
+   * @param port
+   *          - the port to listen on
+   * @param timeout
+   *          - the idle timeout in milliseconds, 0 for unlimited
+   * @throws IOException
+   */
+  public NioHttpServer(int port, int timeout) throws IOException {
+    this.timeout = timeout;
+    this.selector = Selector.open();
+    this.server = ServerSocketChannel.open();
+    server.configureBlocking(false);
+    server.socket().setReuseAddress(true);
+    server.socket().bind(new InetSocketAddress(port));
+    server.register(selector, SelectionKey.OP_ACCEPT);
+  }
+
+  public void run() {
+    while (true) {
+      try {
+        selector.select(timeout > 0 ? Math.min(timeout, 1000) : 0);
+      } catch (IOException e) {
+        NBIAAdapterHTTPServer.log("IOException in the selector.");
+        NBIAAdapterHTTPServer.log(e);
+        return;
+      }
+      Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+      while (keys.hasNext()) {
+        SelectionKey key = keys.next();
+        keys.remove();
+        try {
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else {
+            Connection conn = (Connection) key.attachment();
+            if (key.isReadable()) {
+              conn.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+              conn.flush();
+            }
+          }
+        } catch (IOException e) {
+          close(key);
+        } catch (RuntimeException e) {
+          NBIAAdapterHTTPServer.log(e);
+          close(key);
+        }
+      }
+      Connection conn;
+      while ((conn = resumed.poll()) != null) {
+        try {
+          conn.resume();
+        } catch (IOException e) {
+          close(conn.key);
+        }
+      }
+      if (!handOffs.isEmpty()) {
+        handOff();
+      }
+      if (timeout > 0) {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep >= SWEEP_MILLIS) {
+          lastSweep = now;
+          closeIdle(now);
+        }
+      }
+    }
+  }
+
+  /**
+   * Run the streams whose keys were cancelled this round. A channel can only
+   * go back to blocking mode once the selector has dropped its cancelled key,
+   * hence the selectNow.
+   */
+  private void handOff() {
+    try {
+      selector.selectNow();
+    } catch (IOException e) {
+      // The loop will hit it again on the next select
+    }
+    for (final Connection conn : handOffs) {
+      streams.execute(new Runnable() {
+        public void run() {
+          conn.stream();
+        }
+      });
+    }
+    handOffs.clear();
+  }
+
+  private void accept() throws IOException {
+    SocketChannel c;
+    while ((c = server.accept()) != null) {
+      c.configureBlocking(false);
+      c.socket().setTcpNoDelay(true);
+      SelectionKey key = c.register(selector, SelectionKey.OP_READ);
+      key.attach(new Connection(key, c, handOffs, resumed));
+    }
+  }
+
+  private void closeIdle(long now) {
+    long deadline = now - timeout;
+    for (SelectionKey key : selector.keys()) {
+      Object conn = key.attachment();
+      if (conn instanceof Connection
+          && ((Connection) conn).waiting == null
+          && ((Connection) conn).lastActive < deadline) {
+        close(key);
+      }
+    }
+  }
+
+  private static void close(SelectionKey key) {
+    Object conn = key.attachment();
+    if (conn instanceof Connection && ((Connection) conn).stream != null) {
+      // Closed before the hand-off, so the stream never runs
+      ((Connection) conn).stream.abandon();
+    }
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      // Nothing left to do with it
+    }
+  }
+
+  /**
+   * Per connection state: the bytes read but not yet parsed and the replies
+   * not yet written.
+   */
+  static class Connection {
+    final SelectionKey key;
+    final SocketChannel channel;
+    final List<Connection> handOffs;
+    final Queue<Connection> resumed;
+    final String from;
+    final ByteBuffer in = ByteBuffer.allocate(BUF_SIZE);
+    final HttpRequest request = new HttpRequest();
+    final ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+    /** Takes a small reply whole, head and body, while it isn't queued */
+    final ByteBuffer scratch = ByteBuffer.allocate(SCRATCH_SIZE);
+    boolean scratchQueued;
+    final ByteBuffer[] gather = new ByteBuffer[16];
+    boolean closing;
+    StreamingReply stream;
+    String streamVersion;
+    /** The reply being waited for, and how to send it once it is ready */
+    DeferredReply waiting;
+    String waitingVersion;
+    String waitingConnection;
+    boolean waitingHead;
+    volatile HttpReply ready;
+    long lastActive = System.currentTimeMillis();
+
+    Connection(SelectionKey key, SocketChannel channel,
+        List<Connection> handOffs, Queue<Connection> resumed) {
+      this.key = key;
+      this.channel = channel;
+      this.handOffs = handOffs;
+      this.resumed = resumed;
+      this.from = channel.socket().getInetAddress().getHostAddress();
+    }
+
+    void read() throws IOException {
+      int n = channel.read(in);
+      if (n < 0) {
+        close(key);
+        return;
+      }
+      lastActive = System.currentTimeMillis();
+      parse();
+      flush();
+    }
+
+    /**
+     * Answer every complete request in the buffer, in order. The head of a
+     * request is parsed in place as it arrives, and only the bytes of a
+     * partial one are kept for the next read.
+     */
+    void parse() {
+      byte[] buf = in.array();
+      int start = 0;
+      int end = in.position();
+      while (!closing && waiting == null) {
+        int head = request.parse(buf, end);
+        if (head == HttpRequest.NEED_MORE) {
+          break;
+        }
+        if (head == HttpRequest.BAD) {
+          queue(HttpReply.text(HTTP_BAD_REQUEST, "Bad Request",
+              "Bad Request\n"), "HTTP/1.0", "close");
+          closing = true;
+          break;
+        }
+        answer();
+        start = head;
+        request.reset(start);
+      }
+      if (closing) {
+        in.clear();
+        return;
+      }
+      // Keep the partial request for the next read
+      System.arraycopy(buf, start, buf, 0, end - start);
+      request.rebase(start);
+      in.position(end - start);
+      if (!in.hasRemaining()) {
+        queue(HttpReply.text(HTTP_ENTITY_TOO_LARGE, "Request Too Large",
+            "Request Too Large\n"), "HTTP/1.0", "close");
+        closing = true;
+      }
+    }
+
+    /**
+     * Answer the request just parsed
+     */
+    void answer() {
+      String version = request.http11 ? "HTTP/1.1" : "HTTP/1.0";
+      HttpReply reply = NBIAAdapterHTTPServer.route(request, from);
+      if (reply instanceof StreamingReply) {
+        // Relayed off the loop once the earlier replies are out
+        stream = (StreamingReply) reply;
+        streamVersion = version;
+        closing = true;
+        return;
+      }
+      boolean head = request.method == HttpRequest.HEAD;
+      String connection;
+      if (request.method == HttpRequest.OTHER) {
+        // It may carry a body we won't read
+        connection = "close";
+        head = false;
+        closing = true;
+      } else if (request.keepAlive()) {
+        connection = request.http11 ? null : "keep-alive";
+      } else {
+        connection = "close";
+        closing = true;
+      }
+      if (reply instanceof DeferredReply) {
+        waiting = (DeferredReply) reply;
+        waitingVersion = version;
+        waitingConnection = connection;
+        waitingHead = head;
+        waiting.start(new DeferredReply.Callback() {
+          public void ready(HttpReply r) {
+            ready = r;
+            resumed.add(Connection.this);
+            key.selector().wakeup();
+          }
+        });
+      } else {
+        queue(reply, version, connection, head);
+      }
+    }
+
+    /**
+     * Send the deferred reply that became ready, then answer the requests
+     * that came in behind it.
+     */
+    void resume() throws IOException {
+      if (!key.isValid()) {
+        return;
+      }
+      queue(ready, waitingVersion, waitingConnection, waitingHead);
+      waiting = null;
+      ready = null;
+      lastActive = System.currentTimeMillis();
+      parse();
+      flush();
+    }
+
+    void queue(HttpReply reply, String version, String connection) {
+      queue(reply, version, connection, false);
+    }
+
+    /**
+     * Queue a small reply in the scratch buffer, or else the head of a reply
+     * and its body as it is: a large body is sent without a copy.
+     */
+    void queue(HttpReply reply, String version, String connection,
+        boolean head) {
+      if (!scratchQueued) {
+        int end = reply.encode(scratch.array(), 0, version, connection, head);
+        if (end >= 0) {
+          scratch.clear();
+          scratch.limit(end);
+          out.add(scratch);
+          scratchQueued = true;
+          return;
+        }
+      }
+      out.add(ByteBuffer.wrap(reply.encode(version, connection, true)));
+      if (!head && reply.body.length > 0) {
+        out.add(ByteBuffer.wrap(reply.body));
+      }
+    }
+
+    /**
+     * Write as much as the socket takes, every queued buffer in one gather
+     * write, and wait for it to drain if it doesn't take everything.
+     */
+    void flush() throws IOException {
+      while (!out.isEmpty()) {
+        int n = 0;
+        for (ByteBuffer b : out) {
+          if (n == gather.length) {
+            break;
+          }
+          gather[n++] = b;
+        }
+        channel.write(gather, 0, n);
+        Arrays.fill(gather, 0, n, null);
+        int written = 0;
+        while (!out.isEmpty() && !out.getFirst().hasRemaining()) {
+          if (out.removeFirst() == scratch) {
+            scratchQueued = false;
+          }
+          written++;
+        }
+        if (written < n) {
+          key.interestOps(SelectionKey.OP_WRITE);
+          return;
+        }
+        lastActive = System.currentTimeMillis();
+      }
+      if (stream != null) {
+        key.cancel();
+        handOffs.add(this);
+      } else if (waiting != null) {
+        // Reading on finds out if the client leaves meanwhile
+        key.interestOps(SelectionKey.OP_READ);
+      } else if (closing) {
+        close(key);
+      } else {
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    /**
+     * Relay the stream on the calling thread, then close the connection.
+     */
+    void stream() {
+      boolean started = false;
+      try {
+        channel.configureBlocking(true);
+        started = true;
+        stream.relay(Channels.newOutputStream(channel), streamVersion);
+      } catch (IOException e) {
+        // The client went away or the transfer broke; nothing to report to
+      } finally {
+        if (!started) {
+          stream.abandon();
+        }
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // Nothing left to do with it
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the grid answers a transfer with no data for the series.
+ */
+public class NoDataException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * @param uuid
+   *          - the series uuid of the dataset requested
+   */
+  public NoDataException(String uuid) {
+    super("No data for uid " + uuid);
+  }
+
+}
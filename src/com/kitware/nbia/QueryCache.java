@@ -0,0 +1,285 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * In-memory cache of query results. Queries are keyed by a canonical form of
+ * their CQL, so two files that only differ in attribute order, namespace
+ * prefixes or whitespace share an entry. Results expire after a time to live,
+ * and the least recently used queries are dropped beyond a maximum number of
+ * entries. Queries matching more than a maximum number of series are not
+ * kept at all.
+ *
+ * The canonical key of a file is remembered until the file changes, so a
+ * repeat query costs neither the XML parsing nor the grid round trip.
+ */
+public class QueryCache {
+
+  private final long ttlMillis;
+  private final int maxEntries;
+  private final int maxResults;
+
+  /**
+   * Cached results in least to most recently used order
+   */
+  private final LinkedHashMap<String, Entry> entries =
+    new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  /**
+   * Canonical keys of the query files seen so far, by path
+   */
+  private final ConcurrentHashMap<String, FileKey> keys =
+    new ConcurrentHashMap<String, FileKey>();
+
+  private long hits;
+  private long misses;
+  private long invalidations;
+
+  /**
+   * Standard constructor
+   *
+   * @param ttlMillis
+   *          - how long results stay valid, 0 to disable the cache
+   * @param maxEntries
+   *          - the number of queries kept at most
+   * @param maxResults
+   *          - the number of series uids a kept query holds at most
+   */
+  public QueryCache(long ttlMillis, int maxEntries, int maxResults) {
+    this.ttlMillis = ttlMillis;
+    this.maxEntries = maxEntries;
+    this.maxResults = maxResults;
+  }
+
+  /**
+   * @return whether results are kept at all
+   */
+  public boolean isEnabled() {
+    return ttlMillis > 0 && maxEntries > 0 && maxResults > 0;
+  }
+
+  /**
+   * @return the number of series uids a kept query holds at most
+   */
+  public int getMaxResults() {
+    return maxResults;
+  }
+
+  /**
+   * @param cql
+   *          - a CQL query file
+   * @return the canonical form of the query, the same for equivalent files
+   * @throws Exception
+   *           if the file can't be read or parsed
+   */
+  public String keyFor(File cql) throws Exception {
+    String path = cql.getPath();
+    long modified = cql.lastModified();
+    long length = cql.length();
+    FileKey k = keys.get(path);
+    if (k == null || k.modified != modified || k.length != length) {
+      k = new FileKey(modified, length, canonicalize(cql));
+      keys.put(path, k);
+    }
+    return k.key;
+  }
+
+  /**
+   * Look a query up, counting the hit or miss.
+   *
+   * @param key
+   *          - the canonical form of the query
+   * @return the cached series uids, or null if absent or expired
+   */
+  public synchronized String[] lookup(String key) {
+    Entry e = entries.get(key);
+    if (e != null && e.expires > System.currentTimeMillis()) {
+      hits++;
+      return e.uuids;
+    }
+    if (e != null) {
+      entries.remove(key);
+    }
+    misses++;
+    return null;
+  }
+
+  /**
+   * Remember the complete results of a query, dropping the least recently
+   * used queries beyond the maximum.
+   *
+   * @param key
+   *          - the canonical form of the query
+   * @param uuids
+   *          - every series uid the query matched
+   */
+  public synchronized void store(String key, List<String> uuids) {
+    if (!isEnabled() || uuids.size() > maxResults) {
+      return;
+    }
+    entries.put(key, new Entry(uuids.toArray(new String[uuids.size()]),
+        System.currentTimeMillis() + ttlMillis));
+    Iterator<String> itr = entries.keySet().iterator();
+    while (entries.size() > maxEntries && itr.hasNext()) {
+      itr.next();
+      itr.remove();
+    }
+  }
+
+  /**
+   * Forget the results of one query.
+   *
+   * @param key
+   *          - the canonical form of the query
+   * @return true if results were cached for it
+   */
+  public synchronized boolean invalidate(String key) {
+    boolean removed = entries.remove(key) != null;
+    if (removed) {
+      invalidations++;
+    }
+    return removed;
+  }
+
+  /**
+   * Forget the results of every query.
+   *
+   * @return the number of queries forgotten
+   */
+  public synchronized int invalidateAll() {
+    int n = entries.size();
+    entries.clear();
+    invalidations += n;
+    return n;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getInvalidations() {
+    return invalidations;
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  /**
+   * Serialize a CQL document so that equivalent documents give the same
+   * string: elements are named by namespace uri instead of prefix,
+   * attributes are sorted, and runs of whitespace in values and text are
+   * collapsed.
+   *
+   * @param cql
+   *          - a CQL query file
+   * @return the canonical form
+   * @throws Exception
+   *           if the file can't be read or parsed
+   */
+  static String canonicalize(File cql) throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    factory.setIgnoringComments(true);
+    factory.setExpandEntityReferences(false);
+    DocumentBuilder builder = factory.newDocumentBuilder();
+    StringBuilder sb = new StringBuilder(512);
+    canonicalize(builder.parse(cql).getDocumentElement(), sb);
+    return sb.toString();
+  }
+
+  private static void canonicalize(Element e, StringBuilder sb) {
+    sb.append('<').append(name(e));
+    Map<String, String> attributes = new TreeMap<String, String>();
+    NamedNodeMap attrs = e.getAttributes();
+    for (int i = 0; i < attrs.getLength(); i++) {
+      Attr a = (Attr) attrs.item(i);
+      if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(a.getNamespaceURI())) {
+        attributes.put(name(a), collapse(a.getValue()));
+      }
+    }
+    for (Map.Entry<String, String> a : attributes.entrySet()) {
+      sb.append(' ').append(a.getKey()).append("=\"").append(a.getValue())
+          .append('"');
+    }
+    sb.append('>');
+    for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
+      if (n.getNodeType() == Node.ELEMENT_NODE) {
+        canonicalize((Element) n, sb);
+      } else if (n.getNodeType() == Node.TEXT_NODE
+          || n.getNodeType() == Node.CDATA_SECTION_NODE) {
+        sb.append(collapse(n.getNodeValue()));
+      }
+    }
+    sb.append("</>");
+  }
+
+  private static String name(Node n) {
+    String local = n.getLocalName() == null ? n.getNodeName() : n
+        .getLocalName();
+    return n.getNamespaceURI() == null ? local : "{" + n.getNamespaceURI()
+        + "}" + local;
+  }
+
+  private static String collapse(String s) {
+    return s.trim().replaceAll("\\s+", " ").replace("&", "&amp;")
+        .replace("<", "&lt;").replace("\"", "&quot;");
+  }
+
+  private static class Entry {
+    final String[] uuids;
+    final long expires;
+
+    Entry(String[] uuids, long expires) {
+      this.uuids = uuids;
+      this.expires = expires;
+    }
+  }
+
+  private static class FileKey {
+    final long modified;
+    final long length;
+    final String key;
+
+    FileKey(long modified, long length, String key) {
+      this.modified = modified;
+      this.length = length;
+      this.key = key;
+    }
+  }
+
+}
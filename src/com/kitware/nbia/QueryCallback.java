@@ -0,0 +1,34 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+/**
+ * Receives the results of a CQL query one series at a time, as the client
+ * walks through them.
+ */
+public interface QueryCallback {
+
+  /**
+   * Called once per series matched by the query, in result order.
+   * 
+   * @param uuid
+   *          - the series instance uid
+   * @throws Exception
+   *           to stop the walk; it is passed on to the caller of the query
+   */
+  void series(String uuid) throws Exception;
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import gov.nih.nci.cagrid.cqlquery.CQLQuery;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.gson.Gson;
+
+/**
+ * The reply of /query/{name}: runs one of the CQL files of the query directory
+ * and sends the matching series as newline delimited json, one
+ * {"uid":"..."} object per line, each line pushed out as soon as it is pulled
+ * from the result set. Complete results are kept in the query cache, and a
+ * repeat of the same query is answered from there. The uids are only
+ * collected while the cache is enabled and the results fit in it.
+ */
+class QueryStream extends StreamingReply {
+
+  final File file;
+
+  /**
+   * Standard constructor
+   *
+   * @param file
+   *          - the CQL file to run
+   */
+  QueryStream(File file) {
+    this.file = file;
+  }
+
+  void relay(OutputStream out, String version) throws IOException {
+    out = new BufferedOutputStream(out);
+    Gson json = new Gson();
+    NBIASimpleClient client = NBIAAdapterHTTPServer.setupClient();
+
+    QueryCache cache = NBIAAdapterHTTPServer.queryCache;
+    String key;
+    CQLQuery query;
+    try {
+      key = cache.keyFor(file);
+      String[] cached = cache.lookup(key);
+      if (cached != null) {
+        out.write(head(version, "Content-Type: application/x-ndjson" + EOL));
+        OutputStream body = body(out, version);
+        for (String uuid : cached) {
+          body.write(line(json, uuid));
+        }
+        finish(body);
+        return;
+      }
+      query = client.readQuery(file.getPath());
+    } catch (Exception e) {
+      NBIAAdapterHTTPServer.log("Could not read the query " + file);
+      NBIAAdapterHTTPServer.log(e);
+      fail(out, version, HTTP_SERVER_ERROR, "Internal Server Error",
+          "Could not read the query.");
+      return;
+    }
+
+    Iterator<String> results;
+    try {
+      results = client.queryIterator(query);
+    } catch (Exception e) {
+      NBIAAdapterHTTPServer.log("Query " + file + " failed");
+      NBIAAdapterHTTPServer.log(e);
+      fail(out, version, HTTP_BAD_GATEWAY, "Bad Gateway",
+          "Internal Server Error at NBIA Site.");
+      return;
+    }
+
+    out.write(head(version, "Content-Type: application/x-ndjson" + EOL));
+    OutputStream body = body(out, version);
+    List<String> uuids = cache.isEnabled() ? new ArrayList<String>() : null;
+    while (results != null && results.hasNext()) {
+      String uuid = results.next();
+      if (uuids != null) {
+        if (uuids.size() < cache.getMaxResults()) {
+          uuids.add(uuid);
+        } else {
+          uuids = null;
+        }
+      }
+      body.write(line(json, uuid));
+      body.flush();
+    }
+    finish(body);
+    if (uuids != null) {
+      cache.store(key, uuids);
+    }
+  }
+
+  private static byte[] line(Gson json, String uuid) {
+    return utf8("{\"uid\":" + json.toJson(uuid) + "}\n");
+  }
+
+  private static void fail(OutputStream out, String version, int code,
+      String reason, String message) throws IOException {
+    String r = new Gson().toJson(new Response(message, false));
+    out.write(HttpReply.json(code, reason, r).encode(version, "close"));
+    out.flush();
+  }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.rmi.RemoteException;
+import java.util.Random;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axis.AxisFault;
+
+/**
+ * How often, and after how long, a download that hit a transient grid fault
+ * is tried again. The delays grow exponentially and are drawn at random
+ * below that bound ("full jitter"), so that the jobs failed by one outage do
+ * not all come back at the same moment.
+ */
+public class RetryPolicy {
+
+  private static final Random random = new Random();
+
+  private final int retries;
+  private final long baseMillis;
+  private final long maxMillis;
+
+  /**
+   * Standard constructor
+   *
+   * @param retries
+   *          - the number of attempts after the first one
+   * @param baseMillis
+   *          - the bound of the first delay
+   * @param maxMillis
+   *          - the bound no delay goes over
+   */
+  public RetryPolicy(int retries, long baseMillis, long maxMillis) {
+    this.retries = retries;
+    this.baseMillis = baseMillis;
+    this.maxMillis = maxMillis;
+  }
+
+  /**
+   * @return the number of attempts after the first one
+   */
+  public int getRetries() {
+    return retries;
+  }
+
+  /**
+   * @param attempt
+   *          - the number of attempts made so far, starting at 1
+   * @return how long to wait before the next attempt, in milliseconds
+   */
+  public long delay(int attempt) {
+    long bound = baseMillis << Math.min(attempt - 1, 30);
+    if (bound <= 0 || bound > maxMillis) {
+      bound = maxMillis;
+    }
+    return (long) (random.nextDouble() * bound);
+  }
+
+  /**
+   * @param e
+   *          - why an attempt failed
+   * @return true if the failure came from the grid or the network and may go
+   *         away by itself: a socket error or timeout anywhere in the causes,
+   *         an HTTP fault with a 5xx status, or a RemoteException that is not
+   *         a SOAP fault. A SOAP fault the service raised about the request
+   *         itself, e.g. an unknown uid, comes back the same every time.
+   */
+  public static boolean isTransient(Throwable e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t instanceof SocketException || t instanceof InterruptedIOException
+          || t instanceof UnknownHostException) {
+        return true;
+      }
+      if (t.getCause() == t) {
+        break;
+      }
+    }
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t instanceof AxisFault) {
+        return isTransient((AxisFault) t);
+      }
+      if (t instanceof RemoteException) {
+        return true;
+      }
+      if (t.getCause() == t) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Axis reports a failed HTTP exchange as an "HTTP" fault whose fault string
+   * starts with the status in parentheses, e.g. "(503)Service Unavailable".
+   * Every other fault code is the service's answer to the request.
+   */
+  private static boolean isTransient(AxisFault fault) {
+    QName code = fault.getFaultCode();
+    if (code == null || !"HTTP".equals(code.getLocalPart())) {
+      return false;
+    }
+    String s = fault.getFaultString();
+    if (s == null || !s.startsWith("(")) {
+      return true;
+    }
+    int end = s.indexOf(')');
+    try {
+      int status = Integer.parseInt(s.substring(1, end < 0 ? 1 : end));
+      return status >= 500 || status == 408 || status == 429;
+    } catch (NumberFormatException e) {
+      return true;
+    }
+  }
+
+}
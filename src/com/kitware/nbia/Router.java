@@ -0,0 +1,117 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+/**
+ * The table of the server's routes, matched against the path segments a
+ * HttpRequest recorded. Segment names are kept as bytes, so matching compares
+ * the request buffer in place and allocates nothing.
+ */
+final class Router {
+
+  static final int NOT_FOUND = 0;
+  static final int FETCH = 1;
+  static final int STREAM = 2;
+  static final int QUERY = 3;
+  static final int INVALIDATE_QUERY = 4;
+  static final int STATUS = 5;
+  static final int SERVER_STATUS = 6;
+  static final int METRICS = 7;
+  static final int EVENTS = 8;
+
+  /**
+   * The label of each route in the metrics, indexed by route
+   */
+  static final String[] NAMES = { "other", "fetch", "stream", "query",
+      "invalidate", "status", "server_status", "metrics", "events" };
+
+  /**
+   * One entry of the table, keyed by the first segment of the path
+   */
+  static final class Route {
+    final byte[] name;
+    /** A second segment that must follow the name, or null */
+    final byte[] sub;
+    /** The index of the segment carrying the parameter */
+    final int param;
+    /** The route when the parameter is there */
+    final int withParam;
+    /** The route when it is missing or empty */
+    final int bare;
+
+    Route(String name, String sub, int param, int withParam, int bare) {
+      this.name = HttpRequest.bytes(name);
+      this.sub = sub == null ? null : HttpRequest.bytes(sub);
+      this.param = param;
+      this.withParam = withParam;
+      this.bare = bare;
+    }
+  }
+
+  private static final Route[] TABLE = {
+      new Route("fetch", null, 2, FETCH, NOT_FOUND),
+      new Route("stream", null, 2, STREAM, NOT_FOUND),
+      new Route("query", null, 2, QUERY, NOT_FOUND),
+      new Route("invalidate", "query", 3, INVALIDATE_QUERY,
+          INVALIDATE_QUERY),
+      new Route("status", null, 2, STATUS, SERVER_STATUS),
+      new Route("metrics", null, 2, METRICS, METRICS),
+      new Route("events", null, 2, EVENTS, EVENTS) };
+
+  private Router() {
+  }
+
+  /**
+   * @param req
+   *          - a parsed request
+   * @return the entry for the first segment of its path, or null
+   */
+  static Route find(HttpRequest req) {
+    for (Route r : TABLE) {
+      if (req.segmentIs(1, r.name)) {
+        return r;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param r
+   *          - the entry found for the request, or null
+   * @param req
+   *          - a parsed request
+   * @return the route serving it
+   */
+  static int resolve(Route r, HttpRequest req) {
+    if (r == null || (r.sub != null && !req.segmentIs(2, r.sub))) {
+      return NOT_FOUND;
+    }
+    boolean has = r.param < req.segments
+        && req.segEnd[r.param] > req.segStart[r.param];
+    return has ? r.withParam : r.bare;
+  }
+
+  /**
+   * @return whether a route answers HEAD. Only the routes that just read
+   *         state do: a HEAD of /fetch would still queue the download and one
+   *         of /invalidate would still drop the cache, and the streams can't
+   *         tell their size without doing the whole transfer.
+   */
+  static boolean allowsHead(int route) {
+    return route == STATUS || route == SERVER_STATUS || route == METRICS;
+  }
+
+}
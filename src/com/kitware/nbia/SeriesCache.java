@@ -0,0 +1,387 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disk cache of extracted series. Every completed series lives in its own
+ * directory under the cache root and is recorded in an index file, so that a
+ * repeat fetch can be answered from disk. The total size of the cached series
+ * is kept under a byte budget by evicting the least recently used series.
+ * What a failed download extracted is kept as a partial series, so that a
+ * later fetch resumes from it. Partial series count against the budget like
+ * the others and are dropped once they are not resumed in time.
+ */
+public class SeriesCache {
+
+  /**
+   * Name of the index file kept in the cache root
+   */
+  private static final String INDEX_NAME = ".nbia-cache-index";
+
+  private final File root;
+  private final File index;
+  private final long maxBytes;
+  private final long partialMillis;
+
+  /**
+   * Cached series in least to most recently used order
+   */
+  private final LinkedHashMap<String, Entry> entries =
+    new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  private long bytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * Standard constructor. Loads the index left by a previous run.
+   *
+   * @param root
+   *          - the directory holding the cached series
+   * @param maxBytes
+   *          - the byte budget of the cache
+   * @param partialMillis
+   *          - how long a partial series is kept for a fetch to resume
+   */
+  public SeriesCache(File root, long maxBytes, long partialMillis) {
+    this.root = root;
+    this.index = new File(root, INDEX_NAME);
+    this.maxBytes = maxBytes;
+    this.partialMillis = partialMillis;
+    if (!root.exists()) {
+      root.mkdirs();
+    }
+    load();
+  }
+
+  /**
+   * @param uuid
+   *          - a series uid as it came in
+   * @return whether it has the shape of a DICOM uid, dot separated numbers,
+   *         so that it names a directory right under the cache root and
+   *         nothing else
+   */
+  public static boolean isUid(String uuid) {
+    if (uuid == null || uuid.length() == 0) {
+      return false;
+    }
+    boolean digit = false;
+    for (int i = 0; i < uuid.length(); i++) {
+      char c = uuid.charAt(i);
+      if (c >= '0' && c <= '9') {
+        digit = true;
+      } else if (c == '.' && digit) {
+        digit = false;
+      } else {
+        return false;
+      }
+    }
+    return digit;
+  }
+
+  /**
+   * @param uuid
+   *          - the series uuid
+   * @return the directory the series is (or will be) extracted into
+   * @throws IllegalArgumentException
+   *           if the uuid is not a uid, e.g. ".." or "."
+   */
+  public File directoryFor(String uuid) {
+    if (!isUid(uuid)) {
+      throw new IllegalArgumentException("Not a series uid: " + uuid);
+    }
+    return new File(root, uuid);
+  }
+
+  /**
+   * Look a series up in the cache, counting the hit or miss.
+   *
+   * @param uuid
+   *          - the series uuid
+   * @return true if the series is on disk and complete
+   */
+  public synchronized boolean lookup(String uuid) {
+    Entry e = entries.get(uuid);
+    if (e != null && !e.partial && directoryFor(uuid).isDirectory()) {
+      e.lastUsed = System.currentTimeMillis();
+      hits++;
+      return true;
+    }
+    if (e != null && !e.partial) {
+      // Somebody cleaned up the directory behind our back
+      entries.remove(uuid);
+      bytes -= e.bytes;
+      save();
+    }
+    misses++;
+    return false;
+  }
+
+  /**
+   * Prepare the directory for a series about to be downloaded. A partial
+   * series left there is no longer accounted for until the download ends, so
+   * that it can't be evicted from under it.
+   *
+   * @param uuid
+   *          - the series uuid
+   * @return the directory to extract into
+   */
+  public File prepare(String uuid) {
+    File dir = directoryFor(uuid);
+    synchronized (this) {
+      Entry e = entries.get(uuid);
+      if (e != null && e.partial) {
+        entries.remove(uuid);
+        bytes -= e.bytes;
+        save();
+      }
+    }
+    if (!dir.exists()) {
+      dir.mkdirs();
+    }
+    return dir;
+  }
+
+  /**
+   * Record a completely extracted series and evict older series until the
+   * cache fits in its budget again.
+   *
+   * @param uuid
+   *          - the series uuid
+   */
+  public void record(String uuid) {
+    admit(uuid, false);
+  }
+
+  /**
+   * Keep what a failed download extracted, for the next fetch of the series
+   * to resume from.
+   *
+   * @param uuid
+   *          - the series uuid
+   */
+  public void keepPartial(String uuid) {
+    if (directoryFor(uuid).isDirectory()) {
+      admit(uuid, true);
+    }
+  }
+
+  private void admit(String uuid, boolean partial) {
+    long size = sizeOf(directoryFor(uuid));
+    List<String> victims = new ArrayList<String>();
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      Entry old = entries.put(uuid, new Entry(size, now, partial));
+      if (old != null) {
+        bytes -= old.bytes;
+      }
+      bytes += size;
+      Iterator<Map.Entry<String, Entry>> itr = entries.entrySet().iterator();
+      while (itr.hasNext()) {
+        Map.Entry<String, Entry> e = itr.next();
+        Entry stale = e.getValue();
+        if (stale.partial && now - stale.lastUsed > partialMillis) {
+          bytes -= stale.bytes;
+          victims.add(e.getKey());
+          itr.remove();
+        }
+      }
+      itr = entries.entrySet().iterator();
+      while (bytes > maxBytes && itr.hasNext()) {
+        Map.Entry<String, Entry> lru = itr.next();
+        // A series bigger than the whole budget is not kept either
+        if (lru.getKey().equals(uuid) && size <= maxBytes) {
+          continue;
+        }
+        bytes -= lru.getValue().bytes;
+        victims.add(lru.getKey());
+        itr.remove();
+        evictions++;
+      }
+      save();
+    }
+    for (String victim : victims) {
+      NBIAAdapterHTTPServer.log("Evicting " + victim + " from the cache");
+      delete(directoryFor(victim));
+    }
+  }
+
+  /**
+   * Throw away whatever a failed download left behind, when there is no
+   * point in resuming it.
+   *
+   * @param uuid
+   *          - the series uuid
+   */
+  public void discard(String uuid) {
+    synchronized (this) {
+      Entry e = entries.remove(uuid);
+      if (e != null) {
+        bytes -= e.bytes;
+        save();
+      }
+    }
+    delete(directoryFor(uuid));
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public synchronized int getSeriesCount() {
+    return entries.size();
+  }
+
+  /**
+   * Read the index left by a previous run, oldest entries first.
+   */
+  private void load() {
+    List<String[]> lines = new ArrayList<String[]>();
+    try {
+      BufferedReader in = new BufferedReader(new FileReader(index));
+      try {
+        String line;
+        while ((line = in.readLine()) != null) {
+          String[] fields = line.split(" ");
+          if ((fields.length == 3 || fields.length == 4) && isUid(fields[0])
+              && directoryFor(fields[0]).isDirectory()) {
+            lines.add(fields);
+          }
+        }
+      } finally {
+        in.close();
+      }
+    } catch (FileNotFoundException e) {
+      return;
+    } catch (IOException e) {
+      System.err.println("Unknown IO Exception on Cache Index Load");
+      return;
+    }
+    Collections.sort(lines, new Comparator<String[]>() {
+      public int compare(String[] a, String[] b) {
+        long x = Long.parseLong(a[2]);
+        long y = Long.parseLong(b[2]);
+        return x < y ? -1 : (x == y ? 0 : 1);
+      }
+    });
+    for (String[] fields : lines) {
+      long size = Long.parseLong(fields[1]);
+      entries.put(fields[0], new Entry(size, Long.parseLong(fields[2]),
+          fields.length == 4));
+      bytes += size;
+    }
+  }
+
+  /**
+   * Write the index next to the cached series. Must hold the lock.
+   */
+  private void save() {
+    File tmp = new File(root, INDEX_NAME + ".tmp");
+    try {
+      PrintWriter out = new PrintWriter(tmp);
+      for (Map.Entry<String, Entry> e : entries.entrySet()) {
+        out.println(e.getKey() + " " + e.getValue().bytes + " "
+            + e.getValue().lastUsed
+            + (e.getValue().partial ? " partial" : ""));
+      }
+      out.close();
+      if (!tmp.renameTo(index)) {
+        index.delete();
+        tmp.renameTo(index);
+      }
+    } catch (FileNotFoundException e) {
+      System.err.println("File not found on Cache Index Save");
+    }
+  }
+
+  /**
+   * @return the number of bytes used by the files under a directory
+   */
+  private static long sizeOf(File f) {
+    if (f.isFile()) {
+      return f.length();
+    }
+    long total = 0;
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        total += sizeOf(child);
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Recursively delete a file or directory
+   */
+  private static void delete(File f) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    f.delete();
+  }
+
+  /**
+   * Bookkeeping for one cached series
+   */
+  private static class Entry {
+    final long bytes;
+    long lastUsed;
+    /** Left by a failed download, to resume from */
+    final boolean partial;
+
+    Entry(long bytes, long lastUsed, boolean partial) {
+      this.bytes = bytes;
+      this.lastUsed = lastUsed;
+      this.partial = partial;
+    }
+  }
+
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The list of zip entries already written completely into a series
+ * directory, with their sizes and CRCs. It lives in the directory while the
+ * series is being extracted, so that an attempt following a failed one can
+ * leave the files it finds complete on disk alone.
+ *
+ * The file is append only, one line per completed entry:
+ *
+ * <pre>
+ * crc size name
+ * </pre>
+ *
+ * with the CRC in hex. A line whose CRC is "-" withdraws the entry. The
+ * manifest is removed once the whole series is on disk.
+ */
+class SeriesManifest {
+
+  /**
+   * Name of the manifest file kept in a series directory
+   */
+  static final String NAME = ".nbia-manifest";
+
+  private final File file;
+  private final Map<String, Entry> entries = new HashMap<String, Entry>();
+  private Writer out;
+
+  /**
+   * Load the manifest left in a directory by an earlier attempt, if any, and
+   * open it for appending.
+   *
+   * @param dir
+   *          - the series directory
+   * @throws IOException
+   */
+  SeriesManifest(File dir) throws IOException {
+    this.file = new File(dir, NAME);
+    load();
+    out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+  }
+
+  private void load() throws IOException {
+    BufferedReader in;
+    try {
+      in = new BufferedReader(new FileReader(file));
+    } catch (FileNotFoundException e) {
+      return;
+    }
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] fields = line.split(" ", 3);
+        if (fields.length < 3) {
+          // A line cut short by a crash
+          continue;
+        }
+        if (fields[0].equals("-")) {
+          entries.remove(fields[2]);
+        } else {
+          try {
+            entries.put(fields[2], new Entry(Long.parseLong(fields[1]), Long
+                .parseLong(fields[0], 16)));
+          } catch (NumberFormatException e) {
+            continue;
+          }
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @return the number of entries recorded as complete
+   */
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @param name
+   *          - the name of the zip entry
+   * @param target
+   *          - where the entry is extracted
+   * @return the recorded entry if it is also still complete on disk, else
+   *         null
+   */
+  synchronized Entry completed(String name, File target) {
+    Entry e = entries.get(name);
+    return e != null && target.length() == e.size ? e : null;
+  }
+
+  /**
+   * Record an entry that is completely written.
+   *
+   * @param name
+   *          - the name of the zip entry
+   * @param size
+   *          - its size once inflated
+   * @param crc
+   *          - the CRC-32 of its content
+   * @throws IOException
+   */
+  synchronized void complete(String name, long size, long crc)
+      throws IOException {
+    entries.put(name, new Entry(size, crc));
+    out.write(Long.toHexString(crc) + " " + size + " " + name + "\n");
+    out.flush();
+  }
+
+  /**
+   * Withdraw an entry, so that the next attempt writes it again.
+   *
+   * @param name
+   *          - the name of the zip entry
+   * @throws IOException
+   */
+  synchronized void forget(String name) throws IOException {
+    entries.remove(name);
+    out.write("- 0 " + name + "\n");
+    out.flush();
+  }
+
+  /**
+   * Close the manifest, keeping it for the next attempt.
+   *
+   * @throws IOException
+   */
+  synchronized void close() throws IOException {
+    out.close();
+  }
+
+  /**
+   * Close and remove the manifest once the series is complete.
+   *
+   * @throws IOException
+   */
+  synchronized void delete() throws IOException {
+    out.close();
+    file.delete();
+  }
+
+  /**
+   * An entry recorded as complete
+   */
+  static class Entry {
+    final long size;
+    final long crc;
+
+    Entry(long size, long crc) {
+      this.size = size;
+      this.crc = crc;
+    }
+  }
+
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The reply of /stream/{uuid}: the series is relayed from the grid to the
+ * client as it arrives, through one fixed buffer, and never staged on disk.
+ * Either the zip is passed through untouched, or its entries are re-framed as
+ * the parts of a multipart/mixed body. A stream takes its place with
+ * {@link #hold} when routed and gives it back once relayed or dropped.
+ */
+class SeriesStream extends StreamingReply {
+
+  /**
+   * Size of the relay buffer, the only memory a stream holds on to
+   */
+  static final int BUF_SIZE = 64 * 1024;
+
+  /**
+   * Number of streams admitted and not finished yet
+   */
+  private static final AtomicInteger active = new AtomicInteger();
+
+  final String uuid;
+  final boolean multipart;
+
+  /** Set once the place taken with hold is given back */
+  private final AtomicBoolean released = new AtomicBoolean();
+
+  /**
+   * Standard constructor
+   *
+   * @param uuid
+   *          - the series uuid of the dataset requested
+   * @param multipart
+   *          - true to send one part per zip entry, false for the raw zip
+   */
+  SeriesStream(String uuid, boolean multipart) {
+    this.uuid = uuid;
+    this.multipart = multipart;
+  }
+
+  /**
+   * @return the number of streams admitted and not finished yet
+   */
+  static int getActiveCount() {
+    return active.get();
+  }
+
+  /**
+   * Take a place for a new stream.
+   *
+   * @param max
+   *          - the most streams relayed at once
+   * @return false if every place is taken
+   */
+  static boolean hold(int max) {
+    for (;;) {
+      int held = active.get();
+      if (held >= max) {
+        return false;
+      }
+      if (active.compareAndSet(held, held + 1)) {
+        return true;
+      }
+    }
+  }
+
+  void abandon() {
+    if (released.compareAndSet(false, true)) {
+      active.decrementAndGet();
+    }
+  }
+
+  /**
+   * Open the series on the grid and relay it to the client. If the grid fails
+   * before the first byte the client gets a 502; after that the connection is
+   * cut short, without the final chunk, so that the client sees the body is
+   * incomplete.
+   *
+   * @param out
+   *          - the connection's output stream
+   * @param version
+   *          - the protocol version of the request
+   * @throws IOException
+   *           if the client goes away
+   */
+  void relay(OutputStream out, String version) throws IOException {
+    try {
+      stream(out, version);
+    } finally {
+      abandon();
+    }
+  }
+
+  private void stream(OutputStream out, String version) throws IOException {
+    out = new BufferedOutputStream(out);
+    InputStream in;
+    try {
+      in = NBIAAdapterHTTPServer.setupClient().openData(uuid);
+    } catch (Exception e) {
+      NBIAAdapterHTTPServer.log("Could not open the stream of " + uuid);
+      NBIAAdapterHTTPServer.log(e);
+      in = null;
+    }
+    if (in == null) {
+      out.write(HttpReply.text(HTTP_BAD_GATEWAY, "Bad Gateway",
+          "The NBIA site did not send the series.\n").encode(version, "close"));
+      out.flush();
+      return;
+    }
+
+    try {
+      String boundary = "nbia-" + Long.toHexString(System.nanoTime());
+      if (multipart) {
+        out.write(head(version, "Content-Type: multipart/mixed; boundary="
+            + boundary + EOL));
+      } else {
+        out.write(head(version, "Content-Type: application/zip" + EOL
+            + "Content-Disposition: attachment; filename=\"" + uuid + ".zip\""
+            + EOL));
+      }
+      out.flush();
+
+      OutputStream body = body(out, version);
+      byte[] buf = new byte[BUF_SIZE];
+      if (multipart) {
+        relayEntries(in, body, buf, boundary);
+      } else {
+        copy(in, body, buf);
+      }
+      finish(body);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Send each zip entry as one part, inflating it on the way.
+   */
+  private static void relayEntries(InputStream in, OutputStream out,
+      byte[] buf, String boundary) throws IOException {
+    // The inflater reads in small steps; don't send each one to the network
+    ZipInputStream zis = new ZipInputStream(new BufferedInputStream(in,
+        BUF_SIZE));
+    ZipEntry entry;
+    while ((entry = zis.getNextEntry()) != null) {
+      if (entry.isDirectory()) {
+        continue;
+      }
+      StringBuilder part = new StringBuilder(160);
+      part.append("--").append(boundary).append(EOL);
+      part.append("Content-Type: application/dicom").append(EOL);
+      part.append("Content-Disposition: attachment; filename=\"")
+          .append(entry.getName()).append('"').append(EOL);
+      if (entry.getSize() >= 0) {
+        part.append("Content-Length: ").append(entry.getSize()).append(EOL);
+      }
+      part.append(EOL);
+      out.write(utf8(part.toString()));
+      copy(zis, out, buf);
+      out.write(utf8(EOL));
+    }
+    out.write(utf8("--" + boundary + "--" + EOL));
+  }
+
+  /**
+   * Copy until the end of the input, pushing every read out straight away.
+   */
+  private static void copy(InputStream in, OutputStream out, byte[] buf)
+      throws IOException {
+    int n;
+    while ((n = in.read(buf)) >= 0) {
+      if (n > 0) {
+        out.write(buf, 0, n);
+        out.flush();
+        Metrics.bytesStreamed.add(n);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The reply of /events: a Server-Sent Events stream of the statuses of some
+ * uuids, or of every uuid. Each uuid's current status is sent first, then
+ * every transition and, about once a second, the progress of its download as
+ * the status table reports them. Each event looks like
+ *
+ * <pre>
+ * event: status
+ * data: {"uuid":"...","status":{"message":"Download Complete.","ok":true}}
+ * </pre>
+ *
+ * Events waiting to be sent are merged per uuid, so a slow client gets the
+ * latest status of each instead of a growing backlog. A stream of given uuids
+ * ends once they are all done or failed; a stream of every uuid lasts until
+ * the client leaves, which a comment sent when nothing happened for a while
+ * finds out. The stream holds a place taken with
+ * {@link NBIAAdapterHTTPServer#holdWaiter}, given back when it ends or is
+ * dropped before it starts.
+ */
+class StatusEvents extends StreamingReply implements StatusTable.Watcher {
+
+  /**
+   * The longest the stream stays silent
+   */
+  static final long KEEPALIVE_MILLIS = 15 * 1000;
+
+  private static final byte[] KEEPALIVE = utf8(": keepalive\n\n");
+
+  private static final AtomicInteger active = new AtomicInteger();
+
+  private final StatusTable table;
+  /** The uuids watched, or null for all of them */
+  private final String[] uuids;
+
+  /** Latest status of each uuid not sent yet, guarded by this */
+  private final Map<String, Event> pending = new LinkedHashMap<String, Event>();
+
+  /** Set once the waiter place is given back */
+  private final AtomicBoolean released = new AtomicBoolean();
+
+  /**
+   * Standard constructor
+   *
+   * @param table
+   *          - the table recording the statuses
+   * @param uuids
+   *          - the uuids to watch, or null for every uuid
+   */
+  StatusEvents(StatusTable table, String[] uuids) {
+    this.table = table;
+    this.uuids = uuids;
+  }
+
+  /**
+   * @return the number of event streams open right now
+   */
+  static int getActiveCount() {
+    return active.get();
+  }
+
+  void relay(OutputStream out, String version) throws IOException {
+    try {
+      stream(out, version);
+    } finally {
+      abandon();
+    }
+  }
+
+  void abandon() {
+    if (released.compareAndSet(false, true)) {
+      NBIAAdapterHTTPServer.releaseWaiter();
+    }
+  }
+
+  private void stream(OutputStream out, String version) throws IOException {
+    out = new BufferedOutputStream(out);
+    out.write(head(version, "Content-Type: text/event-stream" + EOL
+        + "Cache-Control: no-cache" + EOL));
+    OutputStream body = body(out, version);
+
+    active.incrementAndGet();
+    watch();
+    try {
+      Set<String> open = new HashSet<String>();
+      if (uuids != null) {
+        for (String uuid : uuids) {
+          open.add(uuid);
+          // Queued after watching, so that no transition falls in between
+          queue(uuid, NBIAAdapterHTTPServer.getStatusJson(uuid), table
+              .isTerminal(uuid));
+        }
+      }
+      while (uuids == null || !open.isEmpty()) {
+        Event[] events = take(KEEPALIVE_MILLIS);
+        if (events.length == 0) {
+          body.write(KEEPALIVE);
+        } else {
+          ByteArrayOutputStream batch = new ByteArrayOutputStream();
+          for (Event e : events) {
+            e.write(batch);
+            if (e.terminal) {
+              open.remove(e.uuid);
+            }
+          }
+          body.write(batch.toByteArray());
+        }
+        body.flush();
+      }
+      finish(body);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      unwatch();
+      active.decrementAndGet();
+    }
+  }
+
+  public void changed(String uuid, byte[] json, boolean terminal,
+      boolean progress) {
+    queue(uuid, json, terminal);
+  }
+
+  private void watch() {
+    if (uuids == null) {
+      table.watch(null, this);
+    } else {
+      for (String uuid : uuids) {
+        table.watch(uuid, this);
+      }
+    }
+  }
+
+  private void unwatch() {
+    if (uuids == null) {
+      table.unwatch(null, this);
+    } else {
+      for (String uuid : uuids) {
+        table.unwatch(uuid, this);
+      }
+    }
+  }
+
+  private synchronized void queue(String uuid, byte[] json, boolean terminal) {
+    // Re-inserted, so that the order is that of the latest changes
+    pending.remove(uuid);
+    pending.put(uuid, new Event(uuid, json, terminal));
+    notifyAll();
+  }
+
+  /**
+   * @return the events waiting, none if nothing happened for that long
+   */
+  private synchronized Event[] take(long millis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + millis;
+    long left = millis;
+    while (pending.isEmpty() && left > 0) {
+      wait(left);
+      left = deadline - System.currentTimeMillis();
+    }
+    Event[] events = pending.values().toArray(new Event[pending.size()]);
+    pending.clear();
+    return events;
+  }
+
+  /**
+   * One status to send
+   */
+  private static class Event {
+    private static final byte[] START = utf8("event: status\ndata: {\"uuid\":");
+    private static final byte[] STATUS = utf8(",\"status\":");
+    private static final byte[] END = utf8("}\n\n");
+
+    final String uuid;
+    final byte[] json;
+    final boolean terminal;
+
+    Event(String uuid, byte[] json, boolean terminal) {
+      this.uuid = uuid;
+      this.json = json;
+      this.terminal = terminal;
+    }
+
+    void write(ByteArrayOutputStream out) throws IOException {
+      out.write(START);
+      out.write(utf8(NBIAAdapterHTTPServer.json.toJson(uuid)));
+      out.write(STATUS);
+      out.write(json);
+      out.write(END);
+    }
+  }
+
+}
@@ -0,0 +1,376 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of job status transitions, kept in a memory-mapped file
+ * so that the status table survives a restart of the server.
+ *
+ * Each record is laid out as
+ *
+ * <pre>
+ * int length | int crc | byte op | long job | byte ok | short n | uuid | short m | message
+ * </pre>
+ *
+ * The length is written last, so a record torn by a crash reads as a zero
+ * length (or a bad checksum) and replay stops there. A clean journal is
+ * appended to in place after replay; when the mapped region fills up (or a
+ * torn record was found) the journal is compacted down to the latest record
+ * per uuid.
+ */
+public class StatusJournal {
+
+  /** A non-terminal transition (queued, started, ...) */
+  public static final byte OP_STATUS = 1;
+  /** The series was downloaded */
+  public static final byte OP_DONE = 2;
+  /** The download failed */
+  public static final byte OP_FAILURE = 3;
+  /** The status expired and was dropped from the table */
+  public static final byte OP_FORGET = 4;
+
+  /**
+   * The size of a freshly created journal
+   */
+  private static final int INITIAL_CAPACITY = 4 * 1024 * 1024;
+
+  /**
+   * Bytes taken by the length and crc fields
+   */
+  private static final int HEADER = 8;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final File file;
+  private RandomAccessFile raf;
+  private MappedByteBuffer map;
+
+  /**
+   * The latest record written for each uuid, used for compaction
+   */
+  private final Map<String, Record> latest = new HashMap<String, Record>();
+
+  private long maxJob;
+  private long compactions;
+
+  /**
+   * Standard constructor. Replays the journal left by a previous run.
+   *
+   * @param file
+   *          - the journal file
+   * @throws IOException
+   */
+  public StatusJournal(File file) throws IOException {
+    this.file = file;
+    if (!replay()) {
+      compact();
+    }
+  }
+
+  /**
+   * Append a transition to the journal. Terminal transitions are forced to
+   * disk before returning.
+   *
+   * @param op
+   *          - one of OP_STATUS, OP_DONE and OP_FAILURE
+   * @param uuid
+   *          - the series uuid
+   * @param r
+   *          - the new status
+   */
+  public synchronized void append(byte op, String uuid, Response r) {
+    Record rec = new Record(op, uuid, r);
+    try {
+      byte[] payload = rec.encode();
+      if (map.remaining() < HEADER + payload.length + 4) {
+        latest.put(uuid, rec);
+        compact();
+      } else {
+        write(map, payload);
+        latest.put(uuid, rec);
+      }
+      if (op != OP_STATUS) {
+        map.force();
+      }
+    } catch (IOException e) {
+      NBIAAdapterHTTPServer.log("IOException when writing the status journal.");
+      NBIAAdapterHTTPServer.log(e);
+    }
+  }
+
+  /**
+   * Record that a status was dropped, so that it is neither replayed nor kept
+   * by the next compaction.
+   *
+   * @param uuid
+   *          - the series uuid
+   */
+  public synchronized void forget(String uuid) {
+    if (latest.containsKey(uuid)) {
+      append(OP_FORGET, uuid, new Response("", false));
+      latest.remove(uuid);
+    }
+  }
+
+  /**
+   * Load the status of every uuid found in the journal into a table.
+   *
+   * @param table
+   *          - the table to fill
+   * @return the number of statuses restored
+   */
+  public synchronized int restore(StatusTable table) {
+    List<Record> records = new ArrayList<Record>(latest.values());
+    for (Record rec : records) {
+      table.load(rec.op, rec.uuid, rec.toResponse());
+    }
+    return records.size();
+  }
+
+  /**
+   * @return the uuids whose jobs were queued or running when the journal
+   *         was last written, and so need to be queued again
+   */
+  public synchronized List<String> getInterrupted() {
+    List<String> ret = new ArrayList<String>();
+    for (Map.Entry<String, Record> e : latest.entrySet()) {
+      if (e.getValue().op == OP_STATUS) {
+        ret.add(e.getKey());
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @return the highest job id found in the journal
+   */
+  public synchronized long getMaxJob() {
+    return maxJob;
+  }
+
+  public synchronized long getCompactions() {
+    return compactions;
+  }
+
+  /**
+   * Read every intact record of the journal on disk and leave it mapped for
+   * appending after the last one.
+   *
+   * @return true if the journal ended cleanly and can be appended to
+   */
+  private boolean replay() throws IOException {
+    if (!file.exists() || file.length() < HEADER) {
+      return false;
+    }
+    RandomAccessFile in = new RandomAccessFile(file, "rw");
+    FileChannel channel = in.getChannel();
+    MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+        channel.size());
+    CRC32 crc = new CRC32();
+    byte[] payload = new byte[256];
+    Messages messages = new Messages();
+    boolean clean = false;
+    while (buf.remaining() >= HEADER) {
+      int start = buf.position();
+      int length = buf.getInt();
+      int sum = buf.getInt();
+      if (length == 0 && sum == 0) {
+        buf.position(start);
+        clean = true;
+        break;
+      }
+      if (length < 0 || length > buf.remaining()) {
+        break;
+      }
+      if (payload.length < length) {
+        payload = new byte[length * 2];
+      }
+      buf.get(payload, 0, length);
+      crc.reset();
+      crc.update(payload, 0, length);
+      if ((int) crc.getValue() != sum) {
+        break;
+      }
+      Record rec = Record.decode(payload, messages);
+      if (rec.op == OP_FORGET) {
+        latest.remove(rec.uuid);
+      } else {
+        latest.put(rec.uuid, rec);
+      }
+      maxJob = Math.max(maxJob, rec.job);
+    }
+    raf = in;
+    map = buf;
+    return clean;
+  }
+
+  /**
+   * Rewrite the journal with the latest record of each uuid, leaving at least
+   * as much free room as is used.
+   */
+  private void compact() throws IOException {
+    List<byte[]> payloads = new ArrayList<byte[]>(latest.size());
+    long used = 0;
+    for (Record rec : latest.values()) {
+      byte[] payload = rec.encode();
+      payloads.add(payload);
+      used += HEADER + payload.length;
+    }
+    long capacity = INITIAL_CAPACITY;
+    while (capacity < 2 * used) {
+      capacity *= 2;
+    }
+
+    File tmp = new File(file.getPath() + ".tmp");
+    tmp.delete();
+    RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+    out.setLength(capacity);
+    MappedByteBuffer next = out.getChannel().map(FileChannel.MapMode.READ_WRITE,
+        0, capacity);
+    for (byte[] payload : payloads) {
+      write(next, payload);
+    }
+    next.force();
+
+    if (raf != null) {
+      raf.close();
+    }
+    if (!tmp.renameTo(file)) {
+      file.delete();
+      tmp.renameTo(file);
+    }
+    raf = out;
+    map = next;
+    compactions++;
+  }
+
+  /**
+   * Write one record, publishing it by writing its length last.
+   */
+  private static void write(MappedByteBuffer buf, byte[] payload) {
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    int start = buf.position();
+    buf.position(start + 4);
+    buf.putInt((int) crc.getValue());
+    buf.put(payload);
+    buf.putInt(start, payload.length);
+  }
+
+  /**
+   * One status transition
+   */
+  private static class Record {
+    final byte op;
+    final String uuid;
+    final long job;
+    final boolean ok;
+    final String message;
+
+    Record(byte op, String uuid, Response r) {
+      this(op, uuid, r.job == null ? 0 : r.job, r.ok, r.message);
+    }
+
+    Record(byte op, String uuid, long job, boolean ok, String message) {
+      this.op = op;
+      this.uuid = uuid;
+      this.job = job;
+      this.ok = ok;
+      this.message = message;
+    }
+
+    Response toResponse() {
+      return new Response(message, ok, job == 0 ? null : job);
+    }
+
+    byte[] encode() {
+      byte[] u = uuid.getBytes(UTF8);
+      byte[] m = message.getBytes(UTF8);
+      byte[] ret = new byte[1 + 8 + 1 + 2 + u.length + 2 + m.length];
+      ByteBuffer b = ByteBuffer.wrap(ret);
+      b.put(op).putLong(job).put((byte) (ok ? 1 : 0));
+      b.putShort((short) u.length).put(u);
+      b.putShort((short) m.length).put(m);
+      return ret;
+    }
+
+    static Record decode(byte[] payload, Messages messages) {
+      ByteBuffer b = ByteBuffer.wrap(payload);
+      byte op = b.get();
+      long job = b.getLong();
+      boolean ok = b.get() != 0;
+      int n = b.getShort() & 0xffff;
+      String uuid = new String(payload, b.position(), n, UTF8);
+      b.position(b.position() + n);
+      int m = b.getShort() & 0xffff;
+      String message = messages.get(payload, b.position(), m);
+      return new Record(op, uuid, job, ok, message);
+    }
+  }
+
+  /**
+   * The handful of distinct status messages, so that replaying millions of
+   * records does not decode the same few strings millions of times.
+   */
+  private static class Messages {
+    private static final int MAX = 64;
+    private final byte[][] raw = new byte[MAX][];
+    private final String[] decoded = new String[MAX];
+    private int count;
+
+    String get(byte[] buf, int off, int len) {
+      for (int i = 0; i < count; i++) {
+        if (matches(raw[i], buf, off, len)) {
+          return decoded[i];
+        }
+      }
+      String s = new String(buf, off, len, UTF8);
+      if (count < MAX) {
+        byte[] copy = new byte[len];
+        System.arraycopy(buf, off, copy, 0, len);
+        raw[count] = copy;
+        decoded[count++] = s;
+      }
+      return s;
+    }
+
+    private static boolean matches(byte[] a, byte[] buf, int off, int len) {
+      if (a.length != len) {
+        return false;
+      }
+      for (int i = 0; i < len; i++) {
+        if (a[i] != buf[off + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+}
@@ -0,0 +1,374 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.Gson;
+
+/**
+ * Concurrent table of job statuses keyed by series uuid. Lookups never lock
+ * and never insert. Terminal statuses (done or failed) expire after a time to
+ * live, and the oldest of them are evicted first whenever the table grows
+ * past its maximum size. Jobs still in flight are never evicted.
+ *
+ * Every transition is also appended to the status journal, if there is one.
+ * It is serialized to JSON as it is recorded, so that polling a status only
+ * looks up bytes ready to be sent; the status of a running download is
+ * serialized again when its progress moves, about once a second.
+ *
+ * Watchers are told about every transition of the uuids they watch, or of all
+ * of them, as it is recorded, so that clients waiting on a status are woken
+ * up instead of polling for it.
+ */
+public class StatusTable {
+
+  /**
+   * Told about status transitions on the thread recording them, so it must
+   * not block.
+   */
+  interface Watcher {
+    /**
+     * @param uuid
+     *          - the series uuid
+     * @param json
+     *          - its new status as UTF-8 JSON, shared
+     * @param terminal
+     *          - whether the status is done or failed
+     * @param progress
+     *          - whether only the progress of a running download moved
+     */
+    void changed(String uuid, byte[] json, boolean terminal,
+        boolean progress);
+  }
+
+  private final ConcurrentHashMap<String, Entry> entries =
+    new ConcurrentHashMap<String, Entry>();
+
+  /**
+   * Terminal entries in the order they were recorded, oldest first
+   */
+  private final ConcurrentLinkedQueue<Expiry> terminal =
+    new ConcurrentLinkedQueue<Expiry>();
+
+  /** Thread safe, and shared because creating one is costly */
+  private static final Gson json = new Gson();
+
+  /**
+   * Watchers by uuid. Lists are only added and dropped under the map's lock,
+   * so that a watcher never lands in a list being dropped.
+   */
+  private final ConcurrentHashMap<String, CopyOnWriteArrayList<Watcher>>
+    watchers = new ConcurrentHashMap<String, CopyOnWriteArrayList<Watcher>>();
+  private final CopyOnWriteArrayList<Watcher> watchingAll =
+    new CopyOnWriteArrayList<Watcher>();
+  private final AtomicInteger watching = new AtomicInteger();
+
+  /** Numbers the entries, see getVersion */
+  private static final AtomicLong versions = new AtomicLong();
+
+  private final long ttlMillis;
+  private final int maxEntries;
+  private final StatusJournal journal;
+
+  /**
+   * Standard constructor
+   *
+   * @param ttlMillis
+   *          - how long terminal statuses are kept
+   * @param maxEntries
+   *          - the size past which terminal statuses are evicted early
+   * @param journal
+   *          - the journal recording every transition, may be null
+   */
+  public StatusTable(long ttlMillis, int maxEntries, StatusJournal journal) {
+    this.ttlMillis = ttlMillis;
+    this.maxEntries = maxEntries;
+    this.journal = journal;
+  }
+
+  /**
+   * @param uuid
+   *          - the series uuid
+   * @return the current status, or null if the uuid is unknown
+   */
+  public Response get(String uuid) {
+    Entry e = entries.get(uuid);
+    return e == null ? null : e.response;
+  }
+
+  /**
+   * @param uuid
+   *          - the series uuid
+   * @return the current status as UTF-8 JSON, or null if the uuid is
+   *         unknown. The array is shared and must not be modified.
+   */
+  public byte[] getJson(String uuid) {
+    Entry e = entries.get(uuid);
+    return e == null ? null : e.json();
+  }
+
+  /**
+   * @param uuid
+   *          - the series uuid
+   * @return a number that changes with every transition of the status, 0 if
+   *         the uuid is unknown
+   */
+  public long getVersion(String uuid) {
+    Entry e = entries.get(uuid);
+    return e == null ? 0 : e.version;
+  }
+
+  /**
+   * @param uuid
+   *          - the series uuid
+   * @return whether its status is done or failed
+   */
+  public boolean isTerminal(String uuid) {
+    Entry e = entries.get(uuid);
+    return e != null && e.terminal;
+  }
+
+  /**
+   * @return a status as UTF-8 JSON, as getJson returns it
+   */
+  static byte[] toJson(Response r) {
+    return HttpReply.utf8(json.toJson(r));
+  }
+
+  /**
+   * Record a status transition.
+   *
+   * @param op
+   *          - one of StatusJournal.OP_STATUS, OP_DONE and OP_FAILURE
+   * @param uuid
+   *          - the series uuid
+   * @param r
+   *          - the new status
+   */
+  public void put(byte op, String uuid, Response r) {
+    if (journal != null) {
+      journal.append(op, uuid, r);
+    }
+    load(op, uuid, r);
+    Entry e = entries.get(uuid);
+    if (e != null) {
+      tell(uuid, e, false);
+    }
+  }
+
+  /**
+   * Tell the watchers of a running download that its progress moved. The
+   * status itself is unchanged, so nothing is journaled.
+   *
+   * @param uuid
+   *          - the series uuid
+   */
+  public void progressed(String uuid) {
+    Entry e = entries.get(uuid);
+    if (e != null && !e.terminal) {
+      tell(uuid, e, true);
+    }
+  }
+
+  private void tell(String uuid, Entry e, boolean progress) {
+    CopyOnWriteArrayList<Watcher> list = watchers.get(uuid);
+    if (list == null && watchingAll.isEmpty()) {
+      return;
+    }
+    byte[] json = e.json();
+    if (list != null) {
+      for (Watcher w : list) {
+        w.changed(uuid, json, e.terminal, progress);
+      }
+    }
+    for (Watcher w : watchingAll) {
+      w.changed(uuid, json, e.terminal, progress);
+    }
+  }
+
+  /**
+   * Start telling a watcher about the transitions of a uuid.
+   *
+   * @param uuid
+   *          - the series uuid, or null for every uuid
+   * @param w
+   *          - the watcher
+   */
+  public void watch(String uuid, Watcher w) {
+    watching.incrementAndGet();
+    if (uuid == null) {
+      watchingAll.add(w);
+      return;
+    }
+    synchronized (watchers) {
+      CopyOnWriteArrayList<Watcher> list = watchers.get(uuid);
+      if (list == null) {
+        list = new CopyOnWriteArrayList<Watcher>();
+        watchers.put(uuid, list);
+      }
+      list.add(w);
+    }
+  }
+
+  /**
+   * Stop telling a watcher about a uuid.
+   *
+   * @param uuid
+   *          - the uuid given to watch
+   * @param w
+   *          - the watcher
+   */
+  public void unwatch(String uuid, Watcher w) {
+    boolean removed;
+    if (uuid == null) {
+      removed = watchingAll.remove(w);
+    } else {
+      synchronized (watchers) {
+        CopyOnWriteArrayList<Watcher> list = watchers.get(uuid);
+        removed = list != null && list.remove(w);
+        if (list != null && list.isEmpty()) {
+          watchers.remove(uuid);
+        }
+      }
+    }
+    if (removed) {
+      watching.decrementAndGet();
+    }
+  }
+
+  /**
+   * @return the number of watches in place
+   */
+  public int getWatcherCount() {
+    return watching.get();
+  }
+
+  /**
+   * Record a status without journaling it, used when replaying the journal.
+   */
+  void load(byte op, String uuid, Response r) {
+    Entry e = new Entry(r, op != StatusJournal.OP_STATUS);
+    Entry old = entries.put(uuid, e);
+    if (e.terminal) {
+      // A terminal status replacing another, e.g. a cache hit after a
+      // download, takes over the expiry already queued
+      if (old == null || !old.terminal) {
+        e.queued = true;
+        terminal.add(new Expiry(uuid, e));
+      }
+      expire();
+    }
+  }
+
+  /**
+   * @return the number of statuses held
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Drop terminal statuses that outlived their time to live, and the oldest
+   * ones while the table is over its maximum size. Cheap when there is
+   * nothing to do, so it runs after every terminal transition.
+   */
+  public void expire() {
+    long deadline = System.currentTimeMillis() - ttlMillis;
+    Expiry head;
+    while ((head = terminal.peek()) != null) {
+      if (head.entry.created > deadline && entries.size() <= maxEntries) {
+        break;
+      }
+      if (!terminal.remove(head)) {
+        continue;
+      }
+      // Only drop the status if nothing newer replaced it since. A newer
+      // terminal status that took over this expiry waits its own time.
+      if (entries.remove(head.uuid, head.entry)) {
+        if (journal != null) {
+          journal.forget(head.uuid);
+        }
+        continue;
+      }
+      Entry e = entries.get(head.uuid);
+      if (e != null && e.terminal && !e.queued) {
+        e.queued = true;
+        terminal.add(new Expiry(head.uuid, e));
+      }
+    }
+  }
+
+  /**
+   * A status, its JSON and when it was recorded
+   */
+  private static class Entry {
+    final Response response;
+    final boolean terminal;
+    final long created = System.currentTimeMillis();
+    final long version = versions.incrementAndGet();
+    private volatile byte[] json;
+    /** The progress ticks the JSON was encoded at */
+    private volatile int ticks;
+    /** Whether an Expiry of its own is queued */
+    volatile boolean queued;
+
+    Entry(Response response, boolean terminal) {
+      this.response = response;
+      this.terminal = terminal;
+      if (response.progress != null) {
+        this.ticks = response.progress.getTicks();
+      }
+      this.json = toJson(response);
+    }
+
+    /**
+     * @return the JSON, encoded again if the live progress of a running
+     *         download moved since. Threads racing here encode the same
+     *         counters, which is harmless.
+     */
+    byte[] json() {
+      DownloadProgress p = response.progress;
+      if (p != null) {
+        p.refresh();
+        int t = p.getTicks();
+        if (t != ticks) {
+          json = toJson(response);
+          ticks = t;
+        }
+      }
+      return json;
+    }
+  }
+
+  /**
+   * Marks a terminal entry for expiry
+   */
+  private static class Expiry {
+    final String uuid;
+    final Entry entry;
+
+    Expiry(String uuid, Entry entry) {
+      this.uuid = uuid;
+      this.entry = entry;
+    }
+  }
+
+}
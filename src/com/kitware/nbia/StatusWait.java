@@ -0,0 +1,122 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The long poll of /status/{uuid}?wait=30s: the status of the uuid as soon as
+ * it changes, or as it is once the wait is over. It is woken up by the status
+ * table when the status is recorded, so nothing polls on the server either.
+ * It holds a place taken with {@link NBIAAdapterHTTPServer#holdWaiter} until
+ * it is answered.
+ */
+class StatusWait extends DeferredReply implements StatusTable.Watcher {
+
+  /**
+   * Ends the waits that time out. A cancelled wait is dropped at once, so
+   * that waits ended by a change don't pile up.
+   */
+  private static final ScheduledExecutorService timeouts;
+  static {
+    ScheduledThreadPoolExecutor t = new ScheduledThreadPoolExecutor(1,
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setName("status waits");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    t.setRemoveOnCancelPolicy(true);
+    timeouts = t;
+  }
+
+  private final StatusTable table;
+  private final String uuid;
+  private final long seen;
+  private final long millis;
+
+  private final AtomicBoolean done = new AtomicBoolean();
+  private volatile Callback callback;
+  private volatile ScheduledFuture<?> timeout;
+
+  /**
+   * Standard constructor
+   *
+   * @param table
+   *          - the table recording the status
+   * @param uuid
+   *          - the series uuid
+   * @param seen
+   *          - the version of its status when the request came in
+   * @param millis
+   *          - the longest to wait for a change
+   */
+  StatusWait(StatusTable table, String uuid, long seen, long millis) {
+    this.table = table;
+    this.uuid = uuid;
+    this.seen = seen;
+    this.millis = millis;
+  }
+
+  void start(Callback callback) {
+    this.callback = callback;
+    table.watch(uuid, this);
+    timeout = timeouts.schedule(new Runnable() {
+      public void run() {
+        finish(null);
+      }
+    }, millis, TimeUnit.MILLISECONDS);
+    // A change between the request and the watch would go unnoticed
+    if (table.getVersion(uuid) != seen) {
+      finish(null);
+    }
+  }
+
+  public void changed(String uuid, byte[] json, boolean terminal,
+      boolean progress) {
+    // Only transitions end the wait, or a download would end it every second
+    if (!progress) {
+      finish(json);
+    }
+  }
+
+  /**
+   * @param json
+   *          - the new status, or null to reply with the current one
+   */
+  private void finish(byte[] json) {
+    if (!done.compareAndSet(false, true)) {
+      return;
+    }
+    table.unwatch(uuid, this);
+    NBIAAdapterHTTPServer.releaseWaiter();
+    ScheduledFuture<?> t = timeout;
+    if (t != null) {
+      t.cancel(false);
+    }
+    callback.ready(HttpReply.json(HTTP_OK, "OK", json != null ? json
+        : NBIAAdapterHTTPServer.getStatusJson(uuid)));
+  }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A reply whose body is produced while it is being sent, by a call that may
+ * block on the grid. The front ends recognize it and hand it the connection's
+ * output stream on a thread that is allowed to block. HTTP/1.1 clients get a
+ * chunked body; HTTP/1.0 clients get the bytes until the connection closes.
+ * Either way the connection is closed afterwards.
+ */
+abstract class StreamingReply extends HttpReply {
+
+  StreamingReply() {
+    super(HTTP_OK, "OK", null, new byte[0]);
+  }
+
+  /**
+   * Produce the whole reply, status line included.
+   *
+   * @param out
+   *          - the connection's output stream
+   * @param version
+   *          - the protocol version of the request
+   * @throws IOException
+   *           if the client goes away
+   */
+  abstract void relay(OutputStream out, String version) throws IOException;
+
+  /**
+   * Called instead of {@link #relay} when the connection closes before the
+   * reply could start, e.g. the client left while it waited to be handed
+   * off. Releases whatever the reply holds; does nothing by default.
+   */
+  void abandon() {
+  }
+
+  /**
+   * @param version
+   *          - the protocol version of the request
+   * @param headers
+   *          - the content headers, each ending with EOL
+   * @return the head of a 200 reply of unknown length
+   */
+  static byte[] head(String version, String headers) {
+    StringBuilder head = new StringBuilder(200);
+    head.append(version).append(" 200 OK").append(EOL);
+    head.append("Server: ").append(NBIAAdapterHTTPServer.serverName)
+        .append(EOL);
+    head.append(headers);
+    if (isChunked(version)) {
+      head.append("Transfer-Encoding: chunked").append(EOL);
+    }
+    head.append("Connection: close").append(EOL);
+    head.append(EOL);
+    return utf8(head.toString());
+  }
+
+  /**
+   * @return the stream to write the body to, chunked if the version allows
+   */
+  static OutputStream body(OutputStream out, String version) {
+    return isChunked(version) ? new ChunkedOutputStream(out) : out;
+  }
+
+  /**
+   * Terminate a body returned by {@link #body} and flush it.
+   */
+  static void finish(OutputStream body) throws IOException {
+    if (body instanceof ChunkedOutputStream) {
+      ((ChunkedOutputStream) body).finish();
+    }
+    body.flush();
+  }
+
+  private static boolean isChunked(String version) {
+    return version.equals("HTTP/1.1");
+  }
+
+  /**
+   * Frames every write as one chunk of the chunked transfer coding.
+   */
+  static class ChunkedOutputStream extends FilterOutputStream {
+
+    ChunkedOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+      out.write(utf8(Integer.toHexString(len) + EOL));
+      out.write(b, off, len);
+      out.write(utf8(EOL));
+    }
+
+    /**
+     * Write the last, empty chunk
+     */
+    void finish() throws IOException {
+      out.write(utf8("0" + EOL + EOL));
+    }
+  }
+
+}
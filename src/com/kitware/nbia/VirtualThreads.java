@@ -0,0 +1,66 @@
+/**
+ * Copyright 2026 The NBIAAdapter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kitware.nbia;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads. They only exist from Java 21 on, while the rest of
+ * the adapter builds and runs on older JDKs, so the executor is looked up
+ * reflectively.
+ */
+public class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return true if the running JVM supports virtual threads
+   */
+  public static boolean available() {
+    return factoryMethod() != null;
+  }
+
+  /**
+   * @return an executor starting a new virtual thread for each task
+   * @throws UnsupportedOperationException
+   *           if the JVM has no virtual threads
+   */
+  public static ExecutorService newPerTaskExecutor() {
+    Method m = factoryMethod();
+    if (m == null) {
+      throw new UnsupportedOperationException(
+          "Virtual threads require Java 21 or newer");
+    }
+    try {
+      return (ExecutorService) m.invoke(null);
+    } catch (Exception e) {
+      throw new UnsupportedOperationException(
+          "Could not create a virtual thread executor", e);
+    }
+  }
+
+  private static Method factoryMethod() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+}